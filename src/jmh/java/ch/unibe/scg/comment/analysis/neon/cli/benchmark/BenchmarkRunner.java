@@ -0,0 +1,52 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/** Runs the benchmarks of this package (throughput, 1 fork, 3 warmup and 5 measurement iterations by default)
+ * with the GC profiler for the allocation rate and writes the results to target/benchmarks.json.
+ * Run from the project directory, the fixtures are read from data/. Arguments are JMH options, e.g. a benchmark regex,
+ * each one replaces its default only.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions line = new CommandLineOptions(args);
+		// the options of the builder take precedence over the parent ones, so only the options not given are set
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(line);
+		if (line.getIncludes().isEmpty()) {
+			options.include(BenchmarkRunner.class.getPackageName() + ".*");
+		}
+		if (line.getBenchModes().isEmpty()) {
+			options.mode(Mode.Throughput);
+		}
+		if (!line.getTimeUnit().hasValue()) {
+			options.timeUnit(TimeUnit.SECONDS);
+		}
+		if (!line.getForkCount().hasValue()) {
+			options.forks(1);
+		}
+		if (!line.getWarmupIterations().hasValue()) {
+			options.warmupIterations(3);
+		}
+		if (!line.getMeasurementIterations().hasValue()) {
+			options.measurementIterations(5);
+		}
+		if (!line.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!line.getResult().hasValue()) {
+			options.result("target/benchmarks.json");
+		}
+		options.addProfiler(GCProfiler.class);
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,149 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.task.SentenceSplitterPool;
+import ch.unibe.scg.comment.analysis.neon.cli.task.Utility;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Fixtures shared by the benchmarks, read from data/ relative to the working directory.
+ * raw: data/pharo_0_raw_sample.csv, one row per class with the comment and the text of every category.
+ * heuristics: pharo_heuristics.xml from the resources.
+ * dictionary: TF-IDF dictionary of partition 0 in data/pharo_5_extractors.csv.
+ */
+public class Fixtures {
+
+	public static final Path RAW = Paths.get("data", "pharo_0_raw_sample.csv");
+	public static final Path EXTRACTORS = Paths.get("data", "pharo_5_extractors.csv");
+
+	private Fixtures() {
+		super();
+	}
+
+	/**
+	 * @return key = class, value = {key = "comment" or category, value = raw text}, without empty cells
+	 * @throws IOException
+	 */
+	public static Map<String, Map<String, String>> raw() throws IOException {
+		Map<String, Map<String, String>> classes = new LinkedHashMap<>();
+		try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(Files.newBufferedReader(RAW))) {
+			for (CSVRecord record : parser) {
+				Map<String, String> texts = new LinkedHashMap<>();
+				for (Map.Entry<String, String> cell : record.toMap().entrySet()) {
+					if (!cell.getKey().equals("class") && !cell.getKey().equals("stratum") && !cell.getValue()
+							.isEmpty()) {
+						texts.put(cell.getKey(), cell.getValue());
+					}
+				}
+				classes.put(record.get("class"), texts);
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * @return all non empty cells of the raw data
+	 * @throws IOException
+	 */
+	public static List<String> texts() throws IOException {
+		List<String> texts = new ArrayList<>();
+		for (Map<String, String> clazz : raw().values()) {
+			texts.addAll(clazz.values());
+		}
+		return texts;
+	}
+
+	/**
+	 * @return categories in the order of the raw data header
+	 * @throws IOException
+	 */
+	public static List<String> categories() throws IOException {
+		try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(Files.newBufferedReader(RAW))) {
+			List<String> categories = new ArrayList<>(parser.getHeaderNames());
+			categories.remove("class");
+			categories.remove("stratum");
+			categories.remove("comment");
+			return categories;
+		}
+	}
+
+	/**
+	 * Split every preprocessed text with NEON as in T2.
+	 * @return key = class, value = {key = "comment" or category, value = {key = sentence id, value = sentence}}
+	 * @throws Exception
+	 */
+	public static Map<String, Map<String, Map<Integer, String>>> sentences() throws Exception {
+		Map<String, Map<String, Map<Integer, String>>> sentences = new LinkedHashMap<>();
+		int id = 0;
+		try (SentenceSplitterPool splitters = new SentenceSplitterPool(1)) {
+			for (Map.Entry<String, Map<String, String>> clazz : raw().entrySet()) {
+				Map<String, Map<Integer, String>> categories = new LinkedHashMap<>();
+				for (Map.Entry<String, String> text : clazz.getValue().entrySet()) {
+					Map<Integer, String> split = new LinkedHashMap<>();
+					for (String sentence : splitters.split(InstancesBuilder.preprocess(text.getValue()))) {
+						id = id + 1;
+						split.put(id, sentence);
+					}
+					categories.put(text.getKey(), split);
+				}
+				sentences.put(clazz.getKey(), categories);
+			}
+		}
+		return sentences;
+	}
+
+	/**
+	 * @return comment sentences with the categories they belong to, by exact match of the sentences
+	 * @throws Exception
+	 */
+	public static Map<String, List<String>> labelledSentences() throws Exception {
+		Map<String, List<String>> labelled = new LinkedHashMap<>();
+		for (Map<String, Map<Integer, String>> clazz : sentences().values()) {
+			for (String sentence : clazz.getOrDefault("comment", Map.of()).values()) {
+				List<String> categories = new ArrayList<>();
+				for (Map.Entry<String, Map<Integer, String>> category : clazz.entrySet()) {
+					if (!category.getKey().equals("comment") && category.getValue().containsValue(sentence)) {
+						categories.add(category.getKey());
+					}
+				}
+				labelled.put(sentence, categories);
+			}
+		}
+		return labelled;
+	}
+
+	public static File heuristics() throws IOException {
+		Path path = Files.createTempFile("heuristics", ".xml");
+		path.toFile().deleteOnExit();
+		Files.writeString(path, Utility.resource("pharo_heuristics.xml"));
+		return path.toFile();
+	}
+
+	public static File dictionary() throws IOException {
+		try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader()
+				.parse(Files.newBufferedReader(EXTRACTORS))) {
+			for (CSVRecord record : parser) {
+				if (record.get("partition").equals("0")) {
+					Path path = Files.createTempFile("dictionary", ".csv");
+					path.toFile().deleteOnExit();
+					Files.write(path, record.get("dictionary").getBytes(StandardCharsets.UTF_8));
+					return path.toFile();
+				}
+			}
+		}
+		throw new IOException("no dictionary for partition 0 in " + EXTRACTORS);
+	}
+
+}
@@ -0,0 +1,61 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.StringToHeuristicVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.filters.Filter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Transform the comment sentences of the raw sample to heuristic features, StringToHeuristicVector.process per sentence.
+ */
+@State(Scope.Benchmark)
+public class HeuristicVectorBenchmark {
+
+	private List<String> categories;
+	private File heuristics;
+	private Instances instances;
+
+	@Setup
+	public void setup() throws Exception {
+		this.categories = Fixtures.categories();
+		this.heuristics = Fixtures.heuristics();
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		for (String category : this.categories) {
+			attributes.add(new Attribute(String.format("category-%s", category), List.of("0", "1")));
+		}
+		attributes.add(new Attribute("text", true, null));
+		this.instances = new Instances("benchmark", attributes, 0);
+		for (Map.Entry<String, List<String>> sentence : Fixtures.labelledSentences().entrySet()) {
+			SparseInstance instance = new SparseInstance(this.instances.numAttributes());
+			instance.setDataset(this.instances);
+			for (String category : this.categories) {
+				instance.setValue(this.instances.attribute(String.format("category-%s", category)),
+						sentence.getValue().contains(category) ? "1" : "0"
+				);
+			}
+			instance.setValue(this.instances.attribute("text"), InstancesBuilder.preprocess(sentence.getKey()));
+			this.instances.add(instance);
+		}
+	}
+
+	@Benchmark
+	public Instances heuristic() throws Exception {
+		try (StringToHeuristicVector filter = new StringToHeuristicVector()) {
+			filter.setCategories(this.categories);
+			filter.setHeuristics(this.heuristics);
+			filter.setInputFormat(this.instances);
+			return Filter.useFilter(this.instances, filter);
+		}
+	}
+
+}
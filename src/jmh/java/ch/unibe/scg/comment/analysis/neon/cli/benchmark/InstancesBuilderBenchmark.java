@@ -0,0 +1,48 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** Build the training dataset of the comment sentences of the raw sample, heuristic and TF-IDF filters as in T6.
+ */
+@State(Scope.Benchmark)
+public class InstancesBuilderBenchmark {
+
+	private List<String> categories;
+	private File heuristics;
+	private File dictionary;
+	private Map<String, List<String>> sentences;
+
+	@Setup
+	public void setup() throws Exception {
+		this.categories = Fixtures.categories();
+		this.heuristics = Fixtures.heuristics();
+		this.dictionary = Fixtures.dictionary();
+		this.sentences = Fixtures.labelledSentences();
+	}
+
+	@Benchmark
+	public Instances build() throws Exception {
+		try (
+				InstancesBuilder builder = new InstancesBuilder("benchmark", this.categories, this.heuristics,
+						this.dictionary
+				)
+		) {
+			builder.setPartition(0);
+			for (Map.Entry<String, List<String>> sentence : this.sentences.entrySet()) {
+				builder.add(sentence.getKey(), new HashSet<>(sentence.getValue()));
+			}
+			return builder.build();
+		}
+	}
+
+}
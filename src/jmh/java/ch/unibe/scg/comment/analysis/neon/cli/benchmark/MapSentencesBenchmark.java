@@ -0,0 +1,34 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.task.SentenceMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.Map;
+
+/** Map the comment sentences to the category sentences of every class of the raw sample, as T3 does.
+ */
+@State(Scope.Benchmark)
+public class MapSentencesBenchmark {
+
+	private Collection<Map<String, Map<Integer, String>>> classes;
+	private SentenceMapper mapper;
+
+	@Setup
+	public void setup() throws Exception {
+		this.classes = Fixtures.sentences().values();
+		this.mapper = new SentenceMapper();
+	}
+
+	@Benchmark
+	public void map(Blackhole blackhole) {
+		for (Map<String, Map<Integer, String>> sentences : this.classes) {
+			blackhole.consume(this.mapper.map(sentences));
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/** Preprocess every cell of the raw sample, as T1 does, with the single pass and with the former regular expressions.
+ */
+@State(Scope.Benchmark)
+public class PreprocessBenchmark {
+
+	private List<String> texts;
+
+	@Setup
+	public void setup() throws Exception {
+		this.texts = Fixtures.texts();
+	}
+
+	@Benchmark
+	public void preprocess(Blackhole blackhole) {
+		for (String text : this.texts) {
+			blackhole.consume(InstancesBuilder.preprocess(text));
+		}
+	}
+
+	@Benchmark
+	public void preprocessRegex(Blackhole blackhole) {
+		for (String text : this.texts) {
+			blackhole.consume(regex(text));
+		}
+	}
+
+	/**
+	 * Baseline, the regular expression chain replaced by {@link ch.unibe.scg.comment.analysis.neon.cli.Preprocessor}.
+	 */
+	private static String regex(String s) {
+		return s.toLowerCase()
+				.replaceAll("\r\n|\r", "\n")
+				.replaceAll("[^a-z0-9,.@#&^%!? \n]", " ")
+				.replaceAll("([0-9]+)\\.([0-9]+)", "$1$2")
+				.replaceAll(" +", " ")
+				.replaceAll("^[ \n]+", "")
+				.replaceAll("[ \n]+$", "")
+				.replaceAll("\n ", "\n")
+				.replaceAll(" \n", "\n")
+				.replaceAll("\n(\n+)", "\n\n")
+				.replaceAll("(\n|^)[ .!?]+", "$1")
+				.replaceAll("(^|[^a-z0-9])e\\.? ?g\\.? ?($|[^.a-z0-9])", "$1eg$2")
+				.replaceAll("(^|[^a-z0-9])i\\.? ?e\\.? ?($|[^.a-z0-9])", "$1ie$2")
+				.replaceAll("(^|[^a-z0-9])etc\\.? ?($|[^.a-z0-9])", "$1etc$2")
+				.trim();
+	}
+
+}
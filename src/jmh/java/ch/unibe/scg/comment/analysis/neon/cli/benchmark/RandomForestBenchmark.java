@@ -0,0 +1,59 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Reorder;
+
+import java.util.List;
+import java.util.Map;
+
+/** Train the RandomForest of one category on the comment sentences of the raw sample, as T10 does.
+ * The dataset is prepared as in T6 (one category) and T7 (label last).
+ */
+@State(Scope.Benchmark)
+public class RandomForestBenchmark {
+
+	@Param({"Intent", "Responsibilities"})
+	public String category;
+
+	private Instances training;
+
+	@Setup
+	public void setup() throws Exception {
+		Instances instances;
+		try (
+				InstancesBuilder builder = new InstancesBuilder("benchmark",
+						Fixtures.categories(),
+						this.category,
+						Fixtures.heuristics(),
+						Fixtures.dictionary()
+				)
+		) {
+			builder.setPartition(0);
+			for (Map.Entry<String, List<String>> sentence : Fixtures.labelledSentences().entrySet()) {
+				builder.add(sentence.getKey(), this.category, sentence.getValue().contains(this.category) ? "1" : "0");
+			}
+			instances = builder.build();
+		}
+		Reorder reorder = new Reorder();
+		reorder.setAttributeIndices("2-last,first");
+		reorder.setInputFormat(instances);
+		this.training = Filter.useFilter(instances, reorder);
+		this.training.setClassIndex(this.training.numAttributes() - 1);
+	}
+
+	@Benchmark
+	public RandomForest train() throws Exception {
+		RandomForest classifier = new RandomForest();
+		classifier.buildClassifier(new Instances(this.training));
+		return classifier;
+	}
+
+}
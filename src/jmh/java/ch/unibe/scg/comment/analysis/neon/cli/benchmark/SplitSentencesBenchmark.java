@@ -0,0 +1,44 @@
+package ch.unibe.scg.comment.analysis.neon.cli.benchmark;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.task.SentenceSplitterPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Split every preprocessed cell of the raw sample into sentences with NEON, as T2 does.
+ */
+@State(Scope.Benchmark)
+public class SplitSentencesBenchmark {
+
+	private List<String> texts;
+	private SentenceSplitterPool splitters;
+
+	@Setup
+	public void setup() throws Exception {
+		this.texts = new ArrayList<>();
+		for (String text : Fixtures.texts()) {
+			this.texts.add(InstancesBuilder.preprocess(text));
+		}
+		this.splitters = new SentenceSplitterPool(1);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.splitters.close();
+	}
+
+	@Benchmark
+	public void split(Blackhole blackhole) throws Exception {
+		for (String text : this.texts) {
+			blackhole.consume(this.splitters.split(text));
+		}
+	}
+
+}
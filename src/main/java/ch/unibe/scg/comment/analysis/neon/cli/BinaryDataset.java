@@ -0,0 +1,304 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Compact binary form of a dataset, read into Weka instances without parsing text.
+ * Layout: magic, flags, then (deflated if flagged) the relation name, the attributes (type, name and nominal values)
+ * and the class index once, the numeric values of the dataset once, ordered by frequency, and one row per instance:
+ * a header with the number of values, the weight flag and the sparse flag, followed by (index gap, value) pairs.
+ * Integers are varints, numeric values are varint references to the value table, nominal values are varints and
+ * strings are their UTF-8 length as varint followed by their UTF-8 bytes.
+ * Values are stored exactly, an ARFF export of the loaded dataset is identical to an export of the original one.
+ * @Note: only numeric, nominal and string attributes are supported.
+ */
+public class BinaryDataset {
+
+	private static final byte[] MAGIC = {'N', 'B', 'D', 2}; // the last byte is the version of the binary form
+	private static final int DEFLATE = 1;
+	private static final int NUMERIC = 0;
+	private static final int NOMINAL = 1;
+	private static final int STRING = 2;
+
+	private BinaryDataset() {
+		super();
+	}
+
+	/**
+	 * @param input stream positioned at the start of a dataset, must support mark and reset
+	 * @return whether the dataset is in the binary form, the stream is reset to where it was
+	 * @throws IOException
+	 */
+	public static boolean isBinary(InputStream input) throws IOException {
+		input.mark(MAGIC.length);
+		try {
+			return Arrays.equals(input.readNBytes(MAGIC.length), MAGIC);
+		} finally {
+			input.reset();
+		}
+	}
+
+	/**
+	 * @param instances the dataset
+	 * @param output receives the binary form
+	 * @param deflate whether to compress the attributes and instances
+	 * @throws IOException
+	 */
+	public static void write(Instances instances, OutputStream output, boolean deflate) throws IOException {
+		output.write(MAGIC);
+		output.write(deflate ? DEFLATE : 0);
+		Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+		try {
+			DeflaterOutputStream deflated = deflate ? new DeflaterOutputStream(output, deflater, 65536) : null;
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+					deflate ? deflated : output, 65536));
+			writeHeader(instances, data);
+			double[] table = table(instances);
+			Map<Long, Integer> references = new HashMap<>();
+			writeVarint(data, table.length);
+			for (int i = 0; i < table.length; i = i + 1) {
+				data.writeDouble(table[i]);
+				references.put(Double.doubleToLongBits(table[i]), i);
+			}
+			writeVarint(data, instances.numInstances());
+			for (int i = 0; i < instances.numInstances(); i = i + 1) {
+				writeInstance(instances.instance(i), references, data);
+			}
+			data.flush();
+			if (deflate) {
+				// finish instead of close, the output stream belongs to the caller
+				deflated.finish();
+			}
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * @param input binary form, see {@link #write(Instances, OutputStream, boolean)}
+	 * @return the dataset
+	 * @throws IOException if the input is not a dataset in the binary form
+	 */
+	public static Instances read(InputStream input) throws IOException {
+		if (!Arrays.equals(input.readNBytes(MAGIC.length), MAGIC)) {
+			throw new IOException("Not a binary dataset");
+		}
+		int flags = input.read();
+		if (flags < 0) {
+			throw new EOFException();
+		}
+		Inflater inflater = (flags & DEFLATE) != 0 ? new Inflater() : null;
+		try {
+			DataInputStream data = new DataInputStream(new BufferedInputStream(
+					inflater != null ? new InflaterInputStream(input, inflater, 65536) : input, 65536));
+			Instances header = readHeader(data);
+			double[] table = new double[readVarint(data)];
+			for (int i = 0; i < table.length; i = i + 1) {
+				table[i] = data.readDouble();
+			}
+			int size = readVarint(data);
+			Instances instances = new Instances(header, size);
+			for (int i = 0; i < size; i = i + 1) {
+				instances.add(readInstance(instances, table, data));
+			}
+			return instances;
+		} finally {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	private static void writeHeader(Instances instances, DataOutputStream data) throws IOException {
+		writeString(data, instances.relationName());
+		writeVarint(data, instances.numAttributes());
+		for (int i = 0; i < instances.numAttributes(); i = i + 1) {
+			Attribute attribute = instances.attribute(i);
+			if (attribute.isNumeric()) {
+				data.writeByte(NUMERIC);
+				writeString(data, attribute.name());
+			} else if (attribute.isNominal()) {
+				data.writeByte(NOMINAL);
+				writeString(data, attribute.name());
+				writeVarint(data, attribute.numValues());
+				for (int j = 0; j < attribute.numValues(); j = j + 1) {
+					writeString(data, attribute.value(j));
+				}
+			} else if (attribute.isString()) {
+				data.writeByte(STRING);
+				writeString(data, attribute.name());
+			} else {
+				throw new IllegalArgumentException("Unsupported attribute type " + Attribute.typeToString(attribute));
+			}
+		}
+		writeVarint(data, instances.classIndex() + 1);
+	}
+
+	private static Instances readHeader(DataInputStream data) throws IOException {
+		String relation = readString(data);
+		int numAttributes = readVarint(data);
+		ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+		for (int i = 0; i < numAttributes; i = i + 1) {
+			int type = data.readByte();
+			String name = readString(data);
+			if (type == NUMERIC) {
+				attributes.add(new Attribute(name));
+			} else if (type == NOMINAL) {
+				int numValues = readVarint(data);
+				List<String> values = new ArrayList<>(numValues);
+				for (int j = 0; j < numValues; j = j + 1) {
+					values.add(readString(data));
+				}
+				attributes.add(new Attribute(name, values));
+			} else if (type == STRING) {
+				attributes.add(new Attribute(name, true, null));
+			} else {
+				throw new IOException("Unknown attribute type " + type);
+			}
+		}
+		Instances instances = new Instances(relation, attributes, 0);
+		instances.setClassIndex(readVarint(data) - 1);
+		return instances;
+	}
+
+	/**
+	 * @return distinct numeric values of the dataset, the most frequent first
+	 */
+	private static double[] table(Instances instances) {
+		Map<Long, Integer> counts = new HashMap<>();
+		for (int i = 0; i < instances.numInstances(); i = i + 1) {
+			Instance instance = instances.instance(i);
+			for (int j = 0; j < instance.numValues(); j = j + 1) {
+				if (instances.attribute(instance.index(j)).isNumeric()) {
+					counts.merge(Double.doubleToLongBits(instance.valueSparse(j)), 1, Integer::sum);
+				}
+			}
+		}
+		List<Map.Entry<Long, Integer>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort((a, b) -> a.getValue().equals(b.getValue())
+				? Long.compare(a.getKey(), b.getKey())
+				: Integer.compare(b.getValue(), a.getValue()));
+		double[] table = new double[entries.size()];
+		for (int i = 0; i < table.length; i = i + 1) {
+			table[i] = Double.longBitsToDouble(entries.get(i).getKey());
+		}
+		return table;
+	}
+
+	private static void writeInstance(Instance instance, Map<Long, Integer> references, DataOutputStream data)
+			throws IOException {
+		boolean sparse = instance instanceof SparseInstance;
+		boolean weighted = instance.weight() != 1;
+		writeVarint(data, (instance.numValues() << 2) | (weighted ? 2 : 0) | (sparse ? 1 : 0));
+		if (weighted) {
+			data.writeDouble(instance.weight());
+		}
+		int previous = -1;
+		for (int i = 0; i < instance.numValues(); i = i + 1) {
+			int index = instance.index(i);
+			if (sparse) {
+				writeVarint(data, index - previous - 1);
+				previous = index;
+			}
+			Attribute attribute = instance.attribute(index);
+			double value = instance.valueSparse(i);
+			if (attribute.isNumeric()) {
+				writeVarint(data, references.get(Double.doubleToLongBits(value)));
+			} else if (Double.isNaN(value)) {
+				writeVarint(data, 0);
+			} else if (attribute.isString()) {
+				writeVarint(data, 1);
+				writeString(data, attribute.value((int) value));
+			} else {
+				writeVarint(data, (int) value + 1);
+			}
+		}
+	}
+
+	private static Instance readInstance(Instances instances, double[] table, DataInputStream data) throws IOException {
+		int header = readVarint(data);
+		boolean sparse = (header & 1) != 0;
+		double weight = (header & 2) != 0 ? data.readDouble() : 1;
+		int numValues = header >>> 2;
+		double[] values = new double[numValues];
+		int[] indices = new int[numValues];
+		int previous = -1;
+		for (int i = 0; i < numValues; i = i + 1) {
+			int index = sparse ? previous + 1 + readVarint(data) : i;
+			previous = index;
+			indices[i] = index;
+			Attribute attribute = instances.attribute(index);
+			int value = readVarint(data);
+			if (attribute.isNumeric()) {
+				values[i] = table[value];
+			} else if (value == 0) {
+				values[i] = Double.NaN;
+			} else if (attribute.isString()) {
+				values[i] = attribute.addStringValue(readString(data));
+			} else {
+				values[i] = value - 1;
+			}
+		}
+		if (sparse) {
+			return new SparseInstance(weight, values, indices, instances.numAttributes());
+		}
+		return new DenseInstance(weight, values);
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(data, bytes.length);
+		data.write(bytes);
+	}
+
+	private static String readString(DataInputStream data) throws IOException {
+		byte[] bytes = new byte[readVarint(data)];
+		data.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarint(DataOutputStream data, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			data.writeByte((value & 0x7F) | 0x80);
+			value = value >>> 7;
+		}
+		data.writeByte(value);
+	}
+
+	private static int readVarint(DataInputStream data) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift = shift + 7) {
+			int b = data.readUnsignedByte();
+			value = value | ((b & 0x7F) << shift);
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+}
@@ -0,0 +1,130 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import ch.unibe.scg.comment.analysis.neon.cli.task.Utility;
+import org.neon.engine.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Pool of NEON parsers to extract heuristics from several threads, e.g. the threads of one filter.
+ * The NEON parser is a process wide singleton that is not safe to share, so the parser of the application class
+ * loader is held by one pool of the process at a time, the other parsers are loaded from the class path in their own
+ * class loader. A parser is created when none is free until the pool has size parsers, then borrowing waits for a
+ * parser to be released. The class loaders are closed with the pool.
+ * @Note: every isolated parser loads its own copy of the NLP models, size the heap accordingly.
+ * @size maximal number of parsers
+ */
+public class HeuristicExtractors implements AutoCloseable {
+
+	private static final AtomicBoolean SHARED = new AtomicBoolean(); // whether a pool holds the application parser
+
+	private final int size;
+	private final BlockingQueue<Extractor> free;
+	private final List<URLClassLoader> loaders;
+	private int created;
+	private boolean shared; // whether this pool holds the parser of the application class loader
+
+	public HeuristicExtractors(int size) {
+		super();
+		this.size = Math.max(1, size);
+		this.free = new LinkedBlockingQueue<>();
+		this.loaders = new ArrayList<>();
+	}
+
+	/**
+	 * @return a parser used by the calling thread only, until it is released
+	 * @throws ReflectiveOperationException
+	 * @throws MalformedURLException
+	 * @throws InterruptedException
+	 */
+	public Extractor borrow() throws ReflectiveOperationException, MalformedURLException, InterruptedException {
+		Extractor extractor = this.free.poll();
+		if (extractor != null) {
+			return extractor;
+		}
+		synchronized (this) {
+			if (this.created == this.size) {
+				extractor = null;
+			} else if (!this.shared && SHARED.compareAndSet(false, true)) {
+				this.shared = true;
+				extractor = new Extractor(Parser.class.getClassLoader());
+				this.created = this.created + 1;
+			} else {
+				URLClassLoader loader = new URLClassLoader(Utility.classPath(), ClassLoader.getPlatformClassLoader());
+				this.loaders.add(loader);
+				extractor = new Extractor(loader);
+				this.created = this.created + 1;
+			}
+		}
+		return extractor == null ? this.free.take() : extractor;
+	}
+
+	public void release(Extractor extractor) {
+		this.free.add(extractor);
+	}
+
+	/**
+	 * Close the class loaders of the parsers and hand the parser of the application class loader to the next pool.
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		this.free.clear();
+		if (this.shared) {
+			this.shared = false;
+			SHARED.set(false);
+		}
+		for (URLClassLoader loader : this.loaders) {
+			loader.close();
+		}
+		this.loaders.clear();
+	}
+
+	/** NEON parser of one class loader, accessed reflectively as the classes differ between loaders.
+	 */
+	public static class Extractor {
+
+		private final Object parser;
+		private final Method extract;
+		private Method sentence;
+		private Method sentenceClass;
+		private Method heuristic;
+
+		private Extractor(ClassLoader loader) throws ReflectiveOperationException {
+			Class<?> parser = Class.forName(Parser.class.getName(), true, loader);
+			this.parser = parser.getMethod("getInstance").invoke(null);
+			this.extract = parser.getMethod("extract", String.class, File.class);
+		}
+
+		/**
+		 * @param text preprocessed sentences
+		 * @param heuristics NEON heuristics file
+		 * @return sentence, class and text of each matched heuristic, one after the other
+		 * @throws ReflectiveOperationException
+		 */
+		public List<String> extract(String text, File heuristics) throws ReflectiveOperationException {
+			List<String> matched = new ArrayList<>();
+			for (Object result : (List<?>) this.extract.invoke(this.parser, text, heuristics)) {
+				if (this.sentenceClass == null) {
+					this.sentence = result.getClass().getMethod("getSentence");
+					this.sentenceClass = result.getClass().getMethod("getSentenceClass");
+					this.heuristic = result.getClass().getMethod("getHeuristic");
+				}
+				matched.add((String) this.sentence.invoke(result));
+				matched.add((String) this.sentenceClass.invoke(result));
+				matched.add((String) this.heuristic.invoke(result));
+			}
+			return matched;
+		}
+
+	}
+
+}
@@ -0,0 +1,402 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import org.neon.engine.Parser;
+import org.neon.engine.XMLReader;
+import org.neon.model.Heuristic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Heuristics loaded once and compiled for matching sentences to heuristic features.
+ * The heuristics are read once (or from their compact binary form stored in _5_extractors) into the feature names and
+ * the heuristic class to category lookup, so matching only runs NEON and looks up the index of each matched heuristic.
+ * The caller owns the matcher and shares it with the filters it builds, nothing is cached across callers.
+ * @Note: NEON only evaluates heuristics given as a file (Parser.extract(String, File) is its only entry point) and
+ * parses the file on every call, so texts are matched in batches, see {@link #extract(List)}: the file is read once per
+ * batch, not per sentence. The file is kept on disk for the lifetime of the matcher, so it stays in the page cache.
+ */
+public class HeuristicMatcher {
+
+	private static final int VERSION = 1;
+	private static final String SEPARATOR = "\n\n"; // paragraph break, NEON starts a new sentence after it
+
+	private final Parser parser;
+	private final File heuristics;
+	private final String id;
+	private final List<String> featureNames;
+	private final Map<String, Integer> featureIndices; // key = feature name, value = index in the feature names
+	private final Map<String, String> categories; // key = normalized category, value = category
+
+	private HeuristicMatcher(File heuristics, Set<List<String>> pairs, List<String> categories) {
+		this.parser = Parser.getInstance();
+		this.heuristics = heuristics;
+		this.id = id(heuristics);
+		this.categories = new HashMap<>();
+		for (String category : categories) {
+			this.categories.putIfAbsent(normalize(category), category);
+		}
+		Set<String> featureNames = new TreeSet<>();
+		for (List<String> pair : pairs) {
+			featureNames.add(this.featureName(pair.get(0), pair.get(1)));
+		}
+		this.featureNames = Collections.unmodifiableList(new ArrayList<>(featureNames));
+		this.featureIndices = new HashMap<>();
+		for (int i = 0; i < this.featureNames.size(); i = i + 1) {
+			this.featureIndices.put(this.featureNames.get(i), i);
+		}
+	}
+
+	/**
+	 * Load the matcher of the heuristics file.
+	 * @param heuristics NEON heuristics file
+	 * @param categories categories the heuristic classes are mapped to
+	 * @return matcher owned by the caller
+	 */
+	public static HeuristicMatcher load(File heuristics, List<String> categories) {
+		return new HeuristicMatcher(heuristics, pairs(XMLReader.read(heuristics)), categories);
+	}
+
+	/**
+	 * Load the matcher of the heuristics file from its compact binary form, see {@link #compile(List)}.
+	 * @param heuristics NEON heuristics file, the compiled form must be compiled from the same heuristics
+	 * @param compiled compiled heuristics
+	 * @param categories categories the heuristic classes are mapped to
+	 * @return matcher owned by the caller
+	 * @throws IOException if the compiled heuristics are corrupt
+	 */
+	public static HeuristicMatcher load(File heuristics, byte[] compiled, List<String> categories) throws IOException {
+		return new HeuristicMatcher(heuristics, pairs(compiled), categories);
+	}
+
+	/**
+	 * Compile the heuristics into the compact binary form: version, number of heuristics and for each heuristic its
+	 * class and text, as only these determine the features.
+	 * @param heuristics heuristics as written into the heuristics file
+	 * @return compiled heuristics
+	 * @throws IOException
+	 */
+	public static byte[] compile(List<Heuristic> heuristics) throws IOException {
+		Set<List<String>> pairs = pairs(heuristics);
+		try (ByteArrayOutputStream buffer = new ByteArrayOutputStream(); DataOutputStream output = new DataOutputStream(
+				buffer)) {
+			output.writeInt(VERSION);
+			output.writeInt(pairs.size());
+			for (List<String> pair : pairs) {
+				output.writeUTF(pair.get(0));
+				output.writeUTF(pair.get(1));
+			}
+			output.flush();
+			return buffer.toByteArray();
+		}
+	}
+
+	/**
+	 * @return "heuristic-[category]-[heuristic]" of all heuristics, sorted
+	 */
+	public List<String> featureNames() {
+		return this.featureNames;
+	}
+
+	/**
+	 * @return SHA-256 of the heuristics file, identifies the heuristics the matches depend on
+	 */
+	public String id() {
+		return this.id;
+	}
+
+	/**
+	 * @param text preprocessed sentence
+	 * @return indices in {@link #featureNames()} of the heuristics matching the text, ascending and distinct
+	 */
+	public int[] match(String text) {
+		return this.indices(this.extract(text));
+	}
+
+	/**
+	 * Run NEON on the text.
+	 * @param text preprocessed sentence
+	 * @return class and text of each matched heuristic, one after the other
+	 */
+	public List<String> extract(String text) {
+		return this.extract(List.of(text)).get(0);
+	}
+
+	/**
+	 * Run NEON once per group of distinct texts joined by paragraph breaks, so NEON reads the heuristics file once per
+	 * group instead of once per text, see {@link #groups}. The matches are assigned to the texts by their sentence, the
+	 * texts NEON split into several sentences are run one by one instead.
+	 * @param texts preprocessed sentences
+	 * @return for each text, class and text of each matched heuristic, one after the other
+	 */
+	public List<List<String>> extract(List<String> texts) {
+		try {
+			return this.extract(texts, Metrics.current(), text -> {
+				List<String> results = new ArrayList<>();
+				for (var result : this.parser.extract(text, this.heuristics)) {
+					results.add(result.getSentence());
+					results.add(result.getSentenceClass());
+					results.add(result.getHeuristic());
+				}
+				return results;
+			});
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Run NEON on the texts with a parser borrowed from a {@link HeuristicExtractors} pool, see {@link #extract(List)}.
+	 * The pool guards the parser of the application class loader, the other methods use it unguarded.
+	 * @param texts preprocessed sentences
+	 * @param extractor parser borrowed by the calling thread
+	 * @param metrics metrics of the task the texts are extracted for, the calling thread may be a pool thread
+	 * @return for each text, class and text of each matched heuristic, one after the other
+	 * @throws ReflectiveOperationException
+	 */
+	public List<List<String>> extract(List<String> texts, HeuristicExtractors.Extractor extractor, Metrics metrics)
+			throws ReflectiveOperationException {
+		return this.extract(texts, metrics, text -> extractor.extract(text, this.heuristics));
+	}
+
+	private List<List<String>> extract(List<String> texts, Metrics metrics, Neon neon)
+			throws ReflectiveOperationException {
+		long start = System.nanoTime();
+		try {
+			Map<String, List<String>> matched = new LinkedHashMap<>(); // key = text, value = its matches
+			for (String text : texts) {
+				matched.putIfAbsent(text, new ArrayList<>());
+			}
+			List<String> alone = new ArrayList<>(); // texts run one by one
+			for (List<String> group : groups(matched.keySet(), alone)) {
+				if (group.size() == 1) {
+					alone.addAll(group);
+				} else {
+					alone.addAll(assign(neon.extract(String.join(SEPARATOR, group)), group, matched));
+				}
+			}
+			for (String text : alone) {
+				List<String> results = neon.extract(text);
+				List<String> matches = matched.get(text);
+				matches.clear();
+				for (int i = 0; i < results.size(); i = i + 3) {
+					matches.add(results.get(i + 1));
+					matches.add(results.get(i + 2));
+				}
+			}
+			List<List<String>> result = new ArrayList<>(texts.size());
+			for (String text : texts) {
+				result.add(matched.get(text));
+			}
+			return result;
+		} finally {
+			metrics.add(Metrics.Counter.NEON_NANOS, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Group the texts so that no text of a group contains another one, then a sentence NEON splits from a text is a
+	 * part of it and equals no other text of its group. The texts spanning paragraphs are run alone.
+	 * @param texts distinct texts
+	 * @param alone receives the texts to run alone
+	 * @return groups of texts, in the order of the texts
+	 */
+	private static List<List<String>> groups(Collection<String> texts, List<String> alone) {
+		List<List<String>> groups = new ArrayList<>();
+		for (String text : texts) {
+			if (text.contains(SEPARATOR)) {
+				alone.add(text);
+				continue;
+			}
+			List<String> group = null;
+			for (int g = 0; g < groups.size() && group == null; g = g + 1) {
+				group = groups.get(g);
+				for (String other : group) {
+					if (other.contains(text) || text.contains(other)) {
+						group = null;
+						break;
+					}
+				}
+			}
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.add(group);
+			}
+			group.add(text);
+		}
+		return groups;
+	}
+
+	/**
+	 * Add class and text of the matched heuristics to the texts equal to their sentence. A sentence equal to no text
+	 * was split from the texts containing it, they are run alone. If no text contains it (NEON changed it), the whole
+	 * group is run alone.
+	 * @param results sentence, class and text of each matched heuristic, one after the other
+	 * @param group texts of the NEON run
+	 * @param matched key = text, value = its matches
+	 * @return texts of the group to run alone
+	 */
+	private static Collection<String> assign(List<String> results, List<String> group, Map<String, List<String>> matched) {
+		Map<String, String> texts = new HashMap<>(); // key = trimmed text, value = text
+		for (String text : group) {
+			texts.put(text.trim(), text);
+		}
+		Set<String> split = new LinkedHashSet<>();
+		for (int i = 0; i < results.size(); i = i + 3) {
+			if (results.get(i) == null) {
+				return group;
+			}
+			String sentence = results.get(i).trim();
+			String text = texts.get(sentence);
+			if (text != null) {
+				matched.get(text).add(results.get(i + 1));
+				matched.get(text).add(results.get(i + 2));
+				continue;
+			}
+			boolean found = false;
+			for (String candidate : group) {
+				if (candidate.contains(sentence)) {
+					split.add(candidate);
+					found = true;
+				}
+			}
+			if (!found) {
+				return group;
+			}
+		}
+		return split;
+	}
+
+	/**
+	 * @param matched class and text of each matched heuristic, see {@link #extract(String)}
+	 * @return indices in {@link #featureNames()} of the matched heuristics, ascending and distinct
+	 */
+	public int[] indices(List<String> matched) {
+		int[] indices = new int[matched.size() / 2];
+		int n = 0;
+		for (int i = 0; i < indices.length; i = i + 1) {
+			Integer index = this.featureIndices.get(this.featureName(matched.get(2 * i), matched.get(2 * i + 1)));
+			// matches without a feature are not part of the vector
+			if (index != null) {
+				indices[n] = index;
+				n = n + 1;
+			}
+		}
+		return distinct(n == indices.length ? indices : Arrays.copyOf(indices, n));
+	}
+
+	/**
+	 * @return the indices sorted and without duplicates
+	 */
+	private static int[] distinct(int[] indices) {
+		Arrays.sort(indices);
+		int distinct = 0;
+		for (int i = 0; i < indices.length; i = i + 1) {
+			if (distinct == 0 || indices[distinct - 1] != indices[i]) {
+				indices[distinct] = indices[i];
+				distinct = distinct + 1;
+			}
+		}
+		return distinct == indices.length ? indices : Arrays.copyOf(indices, distinct);
+	}
+
+	/**
+	 * @return "heuristic-[category]-[heuristic]"
+	 */
+	private String featureName(String heuristicClass, String heuristic) {
+		return "heuristic-" + this.category(heuristicClass) + "-" + heuristic;
+	}
+
+	/**
+	 * Finds the category matching the heuristic class. As NEON processes labels, normalization is required.
+	 * @throws NoSuchElementException if no category matches
+	 */
+	private String category(String heuristicClass) {
+		String category = this.categories.get(normalize(heuristicClass));
+		if (category == null) {
+			throw new NoSuchElementException("No category for heuristic class " + heuristicClass);
+		}
+		return category;
+	}
+
+	private static String normalize(String s) {
+		StringBuilder builder = new StringBuilder(s.length());
+		for (char c : s.toLowerCase().toCharArray()) {
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return distinct (class, text) of the heuristics
+	 */
+	private static Set<List<String>> pairs(List<Heuristic> heuristics) {
+		Set<List<String>> pairs = new LinkedHashSet<>();
+		for (Heuristic heuristic : heuristics) {
+			pairs.add(List.of(heuristic.getSentence_class(), heuristic.getText()));
+		}
+		return pairs;
+	}
+
+	private static Set<List<String>> pairs(byte[] compiled) throws IOException {
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(compiled))) {
+			int version = input.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported compiled heuristics version " + version);
+			}
+			int size = input.readInt();
+			Set<List<String>> pairs = new LinkedHashSet<>();
+			for (int i = 0; i < size; i = i + 1) {
+				pairs.add(List.of(input.readUTF(), input.readUTF()));
+			}
+			return pairs;
+		}
+	}
+
+	private static String id(File heuristics) {
+		try {
+			StringBuilder id = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(heuristics.toPath()))) {
+				id.append(String.format("%02x", b));
+			}
+			return id.toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** One NEON run, on the parser of the application class loader or of an {@link HeuristicExtractors.Extractor}.
+	 */
+	private interface Neon {
+
+		/**
+		 * @return sentence, class and text of each matched heuristic, one after the other
+		 */
+		List<String> extract(String text) throws ReflectiveOperationException;
+
+	}
+
+}
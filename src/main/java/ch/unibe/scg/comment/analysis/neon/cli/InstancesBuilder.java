@@ -2,6 +2,7 @@ package ch.unibe.scg.comment.analysis.neon.cli;
 
 import weka.core.Attribute;
 import weka.core.DictionaryBuilder;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.SparseInstance;
 import weka.core.converters.ArffLoader;
@@ -13,25 +14,30 @@ import weka.filters.unsupervised.attribute.FixedDictionaryStringToWordVector;
 
 import java.io.*;
 import java.lang.reflect.Field;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 
 /** Creates the instances (dataset) and prepare the arff files
  * @heuristics features from heuristics generated from Neon.
  * @dictionary features from tfidif
  * @categories list of categories
+ * @Note: the prepared filters hold NEON parsers and threads, close the builder once done.
  */
-public class InstancesBuilder {
+public class InstancesBuilder implements AutoCloseable {
 
 	private final List<String> categories;
 	private final File heuristics;
 	private final File dictionary;
 	private final Instances instances;
+	private HeuristicMatcher matcher; //compiled heuristics, read from the heuristics file if not set
+	private int threads = 1; //threads extracting the heuristics
+	private ParseCache cache; //cache of the matched heuristics, optional
 	private boolean isTrainingPartition;
 	private Path directory; //directory to store temporary files
 	private String prefix; //prefix for the temporary files
+	private StringToHeuristicVector heuristicFilter; //filters of features, prepared once
+	private FixedDictionaryStringToWordVector tfidfFilter;
+	private Metrics metrics = Metrics.current(); //metrics of the task, the builder may be used from pool threads
 
 	public InstancesBuilder(String name, List<String> categories, File heuristics, File dictionary) {
 		super();
@@ -62,53 +68,67 @@ public class InstancesBuilder {
 	}
 
 	public static Instances load(byte[] bytes) throws IOException {
+		return load(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * @param input ARFF or {@link BinaryDataset}, parsed as it is read
+	 * @return the dataset
+	 * @throws IOException
+	 */
+	public static Instances load(InputStream input) throws IOException {
+		input = input.markSupported() ? input : new BufferedInputStream(input);
+		if (BinaryDataset.isBinary(input)) {
+			return BinaryDataset.read(input);
+		}
 		ArffLoader loader = new ArffLoader();
-		Path path = Files.createTempFile("dataset", ".arff");
-		Files.write(path, bytes);
-		loader.setFile(path.toFile());
+		loader.setSource(input);
 		return loader.getDataSet();
 	}
 
 	public static byte[] save(Instances instances) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		save(instances, buffer);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * @param instances the dataset
+	 * @param output receives the ARFF as it is written
+	 * @throws IOException
+	 */
+	public static void save(Instances instances, OutputStream output) throws IOException {
 		ArffSaver saver = new ArffSaver();
-		Path path = Files.createTempFile("dataset", ".arff");
-		saver.setFile(path.toFile());
 		saver.setInstances(instances);
+		saver.setDestination(output);
 		saver.writeBatch();
-		return Files.readAllBytes(path);
 	}
 
 	/** Preprocess the comment.
 	 * Allow only letter and digit, remove all special symbols, and atmost 400 characters in a sentence.
+	 * Implemented in a single pass by {@link Preprocessor}, the output is identical to the regular expressions:
+	 * <pre>
+	 * s.toLowerCase().replaceAll("\r\n|\r", "\n") // reduce line endings -> line endings are now \n
+	 *   .replaceAll("[^a-z0-9,.@#&amp;^%!? \n]", " ") // reduce alphabet -> string is now [a-z0-9,.!? \n]+
+	 *   .replaceAll("([0-9]+)\\.([0-9]+)", "$1$2") // replace floats
+	 *   .replaceAll(" +", " ") // reduce spaces -> spaces are now single spaces
+	 *   .replaceAll("^[ \n]+", "") // reduce document start -> document does not start with whitespace
+	 *   .replaceAll("[ \n]+$", "") // reduce document end -> document does not end with whitespace
+	 *   .replaceAll("\n ", "\n") // reduce line starts -> lines do not start with spaces
+	 *   .replaceAll(" \n", "\n") // reduce line ends -> lines do not end with spaces
+	 *   .replaceAll("\n(\n+)", "\n\n") // reduce newlines -> line ends are now \n or \n\n
+	 *   .replaceAll("(\n|^)[ .!?]+", "$1") // ensure line starts with non-separators
+	 *   .replaceAll("(^|[^a-z0-9])e\\.? ?g\\.? ?($|[^.a-z0-9])", "$1eg$2") // replace eg
+	 *   .replaceAll("(^|[^a-z0-9])i\\.? ?e\\.? ?($|[^.a-z0-9])", "$1ie$2") // replace ie
+	 *   .replaceAll("(^|[^a-z0-9])etc\\.? ?($|[^.a-z0-9])", "$1etc$2") // replace etc
+	 *   .trim();
+	 * </pre>
 	 *
 	 * @param s the comment to preprocess
 	 * @return preprocessed sentence
 	 */
 	public static String preprocess(String s) {
-		if (s == null) {
-			return null;
-		}
-		return s.toLowerCase().replaceAll("\r\n|\r", "\n") // reduce line endings -> line endings are now \n
-				.replaceAll("[^a-z0-9,.@#&^%!? \n]", " ") // reduce alphabet -> string is now [a-z0-9,.!? \n]+
-				.replaceAll("([0-9]+)\\.([0-9]+)", "$1$2") // replace floats
-				.replaceAll(" +", " ") // reduce spaces -> spaces are now single spaces
-				.replaceAll("^[ \n]+", "") // reduce document start -> document does not start with whitespace
-				.replaceAll("[ \n]+$", "") // reduce document end -> document does not end with whitespace
-				.replaceAll("\n ", "\n") // reduce line starts -> lines do not start with spaces
-				.replaceAll(" \n", "\n") // reduce line ends -> lines do not end with spaces
-				.replaceAll("\n(\n+)", "\n\n") // reduce newlines -> line ends are now \n or \n\n
-				//.replaceAll("([^.!?\n])\n([^\n])", "$1 $2") // join non-sentence lines -> whole sentence on same line
-				//.replaceAll(" ?([.!?])[ .!?]*", "$1") // normalize sentence ends -> multi-terminated is now single-terminated
-				//.replaceAll(" ?,[ ,]*", ", ") // normalize sentence ends -> multi-terminated is now single-terminated
-				//.replaceAll("([,.!?])([^ ])", "$1 $2") // split joined sentences -> sentences and parts are separated by space
-				.replaceAll("(\n|^)[ .!?]+", "$1") // ensure line starts with non-separators
-				.replaceAll("(^|[^a-z0-9])e\\.? ?g\\.? ?($|[^.a-z0-9])", "$1eg$2") // replace eg
-				.replaceAll("(^|[^a-z0-9])i\\.? ?e\\.? ?($|[^.a-z0-9])", "$1ie$2") // replace ie
-				.replaceAll("(^|[^a-z0-9])etc\\.? ?($|[^.a-z0-9])", "$1etc$2") // replace etc
-				//.replaceAll("[^.!?\n]{400}[^ \n]*[ \n]?",
-				//		"$0\n\n"
-				//) // split long sentences -> sentences are now at most 400 characters plus one word long
-				.trim();
+		return Preprocessor.preprocess(s);
 	}
 
 	public void add(String sentence) {
@@ -153,11 +173,141 @@ public class InstancesBuilder {
 	}
 
 	public Instances build() throws Exception {
-		Instances instances = this.tfidf(this.heuristic(this.instances)); //adding tfidf features and heuristic feature
+		//adding tfidf features and heuristic feature
+		Instances heuristic;
+		try (StringToHeuristicVector filter = this.heuristic(this.instances)) {
+			heuristic = this.filter(this.instances, filter);
+		}
+		Instances instances = this.filter(heuristic, this.tfidf(heuristic));
 		instances.setRelationName(this.instances.relationName());
 		return instances;
 	}
 
+	/**
+	 * Builds the dataset of each category of a partition, featurizing each distinct sentence once.
+	 * The heuristic and tfidf features of a sentence depend neither on the other sentences nor on its label, so each
+	 * dataset is identical to the one built by a builder of the category: the category label followed by the features.
+	 *
+	 * @param sentences key = category, value = {key = instance type (label value), value = sentences}
+	 * @return key = category, value = dataset, in the order of the categories
+	 * @throws Exception
+	 */
+	public Map<String, Instances> build(Map<String, Map<String, List<String>>> sentences) throws Exception {
+		// key = sentence, value = index in the features
+		Map<String, Integer> rows = new LinkedHashMap<>();
+		for (Map<String, List<String>> types : sentences.values()) {
+			for (List<String> typeSentences : types.values()) {
+				for (String sentence : typeSentences) {
+					rows.putIfAbsent(sentence, rows.size());
+				}
+			}
+		}
+		Instances features = this.features(new ArrayList<>(rows.keySet()));
+		Map<String, Instances> datasets = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, List<String>>> category : sentences.entrySet()) {
+			ArrayList<Attribute> header = new ArrayList<>();
+			Attribute label = new Attribute(this.categoryName(category.getKey()), List.of("0", "1"));
+			header.add(label);
+			for (int i = 0; i < features.numAttributes(); i = i + 1) {
+				header.add((Attribute) features.attribute(i).copy());
+			}
+			Instances dataset = new Instances(this.instances.relationName(), header, 0);
+			for (Map.Entry<String, List<String>> type : category.getValue().entrySet()) {
+				int value = label.indexOfValue(type.getKey());
+				if (value < 0) {
+					throw new IllegalArgumentException("Value not defined for given nominal attribute!");
+				}
+				for (String sentence : type.getValue()) {
+					dataset.add(this.project(features.instance(rows.get(sentence)), value));
+				}
+			}
+			datasets.put(category.getKey(), dataset);
+		}
+		return datasets;
+	}
+
+	/**
+	 * Featurizes unlabeled sentences, e.g. to classify them with the classifiers trained on the datasets.
+	 * The filters are prepared by the first call, see {@link #prepare()}, and reused by the next ones, so a builder
+	 * featurizes the sentences of one thread at a time.
+	 *
+	 * @param sentences sentences, preprocessed before featurizing
+	 * @return heuristic and tfidf features of the sentences, one instance per sentence in the same order
+	 * @throws Exception
+	 */
+	public Instances features(List<String> sentences) throws Exception {
+		this.prepare();
+		Instances texts = this.texts(sentences.size());
+		for (String sentence : sentences) {
+			SparseInstance instance = new SparseInstance(1);
+			instance.setDataset(texts);
+			instance.setValue(0, preprocess(sentence));
+			texts.add(instance);
+		}
+		return this.filter(this.filter(texts, this.heuristicFilter), this.tfidfFilter);
+	}
+
+	/**
+	 * Prepares the filters of {@link #features(List)}, reading the heuristics and the dictionary once for all calls.
+	 *
+	 * @throws Exception
+	 */
+	public void prepare() throws Exception {
+		if (this.heuristicFilter == null) {
+			this.heuristicFilter = this.heuristic(this.texts(0));
+			this.tfidfFilter = this.tfidf(this.heuristicFilter.getOutputFormat());
+		}
+	}
+
+	/**
+	 * Closes the prepared filters, the next call of {@link #features(List)} prepares them again.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.heuristicFilter != null) {
+			this.heuristicFilter.close();
+			this.heuristicFilter = null;
+			this.tfidfFilter = null;
+		}
+	}
+
+	/**
+	 * @return empty dataset of unlabeled sentences, the "text" attribute only
+	 */
+	private Instances texts(int capacity) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("text", true, null));
+		return new Instances(this.instances.relationName(), attributes, capacity);
+	}
+
+	/**
+	 * @return the features shifted by one attribute, with the label as first attribute
+	 */
+	private Instance project(Instance features, int label) {
+		int numValues = features.numValues();
+		double[] values = new double[numValues + 1];
+		int[] indices = new int[numValues + 1];
+		int n = 0;
+		// like the filters, zero values are not stored
+		if (label != 0) {
+			values[n] = label;
+			indices[n] = 0;
+			n = n + 1;
+		}
+		for (int i = 0; i < numValues; i = i + 1) {
+			values[n] = features.valueSparse(i);
+			indices[n] = features.index(i) + 1;
+			n = n + 1;
+		}
+		return new SparseInstance(features.weight(),
+				Arrays.copyOf(values, n),
+				Arrays.copyOf(indices, n),
+				features.numAttributes() + 1
+		);
+	}
+
 	private String categoryName(String category) {
 		return String.format("category-%s", category);
 	}
@@ -170,29 +320,33 @@ public class InstancesBuilder {
 		}
 	}
 	/**
-	 * Transforms instances from text to heuristic features.
+	 * Filter transforming instances from text to heuristic features.
 	 *
 	 * @param instances Must have a "text" attribute
 	 * @return
 	 * @throws Exception
 	 * @todo get the heuristic from the training partition and use it for testing as well
 	 */
-	private Instances heuristic(Instances instances) throws Exception {
+	private StringToHeuristicVector heuristic(Instances instances) throws Exception {
 		StringToHeuristicVector filter = new StringToHeuristicVector();
 		filter.setCategories(this.categories);
 		filter.setHeuristics(this.heuristics);
+		filter.setMatcher(this.matcher);
+		filter.setThreads(this.threads);
+		filter.setCache(this.cache);
+		filter.setMetrics(this.metrics);
 		filter.setInputFormat(instances);
-		return Filter.useFilter(instances, filter);
+		return filter;
 	}
 
 	/**
-	 * Transforms instances from text to TF-IDF features.
+	 * Filter transforming instances from text to TF-IDF features.
 	 *
 	 * @param instances Must have a "text" attribute
 	 * @return
 	 * @throws Exception
 	 */
-	private Instances tfidf(Instances instances) throws Exception {
+	private FixedDictionaryStringToWordVector tfidf(Instances instances) throws Exception {
 		int i = instances.attribute("text").index() + 1;
 		FixedDictionaryStringToWordVector filter = new FixedDictionaryStringToWordVector();
 		filter.setLowerCaseTokens(true);
@@ -220,7 +374,32 @@ public class InstancesBuilder {
 		Field mVectorizer = FixedDictionaryStringToWordVector.class.getDeclaredField("m_vectorizer");
 		mVectorizer.setAccessible(true);
 		mCount.set(mVectorizer.get(filter), 1000);
-		return Filter.useFilter(instances, filter);
+		return filter;
+	}
+
+	private Instances filter(Instances instances, Filter filter) throws Exception {
+		long start = System.nanoTime();
+		try {
+			return Filter.useFilter(instances, filter);
+		} finally {
+			this.metrics.add(Metrics.Counter.FILTER_NANOS, System.nanoTime() - start);
+		}
+	}
+
+	public void setMatcher(HeuristicMatcher matcher) {
+		this.matcher = matcher;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setCache(ParseCache cache) {
+		this.cache = cache;
+	}
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
 	}
 
 	public void setPath(Path directory, String prefix) {
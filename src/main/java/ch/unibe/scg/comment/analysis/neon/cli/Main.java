@@ -8,15 +8,12 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.nio.file.Paths;
+import java.util.List;
 
 public class Main {
 
-	private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
-
 	public static void main(String[] args) throws Exception {
 		CommandLineParser parser = new DefaultParser();
 		Options options = new Options();
@@ -33,71 +30,153 @@ public class Main {
 				.required()
 				.hasArgs()
 				.valueSeparator(',')
-				.desc("task to perform, split by ',', [1-preprocess,2-split-sentences,3-map-sentences,4-partition-sentences,5-prepare-extractors,5-store-partition,6-prepare-datasets,7-prepare-experiments,8-run-experiments,9-import-experiment-results,10-build-classifiers,11-import-classifier-outputs]")
+				.desc("task to perform, split by ',', [1-preprocess,2-split-sentences,3-map-sentences,1-3-stream-sentences,4-partition-sentences,5-prepare-extractors,5-store-partition,6-prepare-datasets,7-prepare-experiments,8-run-experiments,9-import-experiment-results,10-build-classifiers,11-import-classifier-outputs,12-classify,12-serve-classifier]")
+				.build());
+		options.addOption(Option.builder("p")
+				.longOpt("parallelism")
+				.hasArg()
+				.desc("number of threads for the tasks that run in parallel (default 1)")
+				.build());
+		options.addOption(Option.builder("c")
+				.longOpt("commit-interval")
+				.hasArg()
+				.desc("number of rows written per database transaction (default 50000)")
+				.build());
+		options.addOption(Option.builder("f")
+				.longOpt("dataset-format")
+				.hasArg()
+				.desc("format of the datasets stored by 6-prepare-datasets-workshop [arff|binary|binary-deflate] (default arff), 7-prepare-experiments-workshop exports ARFF in any case")
+				.build());
+		options.addOption(Option.builder("C")
+				.longOpt("classifiers")
+				.hasArgs()
+				.valueSeparator(',')
+				.desc("classifiers built by 10-build-classifiers, split by ',', [zeror,oner,naivebayes,j48,randomforest], the first one is used by 12-classify and 12-serve-classifier (default randomforest)")
+				.build());
+		options.addOption(Option.builder("I")
+				.longOpt("input")
+				.hasArg()
+				.desc("comments classified by 12-classify, CSV with the columns class and comment or JSON lines (.jsonl)")
+				.build());
+		options.addOption(Option.builder("P")
+				.longOpt("port")
+				.hasArg()
+				.desc("port of 12-serve-classifier (default 8080)")
+				.build());
+		options.addOption(Option.builder("i")
+				.longOpt("incremental")
+				.desc("1-preprocess, 2-split-sentences and 3-map-sentences only process the classes added, changed or removed since their last run")
 				.build());
 		try {
 			CommandLine line = parser.parse(options, args);
 			String database = line.getOptionValue("database");
+			int parallelism = Integer.parseInt(line.getOptionValue("parallelism", "1"));
+			boolean incremental = line.hasOption("incremental");
+			if (line.hasOption("commit-interval")) {
+				SQLiteWriter.configure(Integer.parseInt(line.getOptionValue("commit-interval")));
+			}
+			// the tasks are created first, so an unknown task or option fails before anything runs
+			Pipeline pipeline = new Pipeline(database);
+			// the classifiers of all data sources share the cores and heap, the pipeline may build them at the same time
+			ResourceScheduler.Budget classifiers = new ResourceScheduler.Budget(line.hasOption("parallelism")
+					? parallelism
+					: Runtime.getRuntime().availableProcessors());
 			for (String task : line.getOptionValues("task")) {
 				for (String data : line.getOptionValues("data")) {
-					LOGGER.info("Running {} on {}...", task, data);
 					if ("1-preprocess".equals(task)) {
-						(new T1Preprocess(database, data)).run();
+						pipeline.add(data, task, false, new T1Preprocess(database, data, incremental)::run);
+					} else if ("1-3-stream-sentences".equals(task)) {
+						//1-preprocess, 2-split-sentences and 3-map-sentences in one pass
+						pipeline.add(data, task, false, new T1To3StreamSentences(database, data, parallelism)::run);
 					} else if ("2-split-sentences".equals(task)) {
-						(new T2SplitSentences(database, data)).run();
+						pipeline.add(data, task, false, new T2SplitSentences(database, data, parallelism, incremental)::run);
 					} else if ("3-map-sentences".equals(task)) {
-						(new T3MapSentences(database, data)).run();
+						pipeline.add(data, task, false, new T3MapSentences(database, data, parallelism, incremental)::run);
 					} else if ("4-partition-sentences-workshop".equals(task)) {
 						//create a fix testing and training split from the sentences and store it
-						(new T4PartitionSentencesWorkshop(database, data, new int[]{80,20})).run();
+						pipeline.add(data, task, false, new T4PartitionSentencesWorkshop(database, data, new int[]{80,20})::run);
 					} else if ("5-prepare-extractors".equals(task)) {
 						//set boolean variable true if you want to use explicit heuristic file
-						(new T5PrepareExtractors(database, data, Integer.MAX_VALUE, false)).run();
+						pipeline.add(data, task, false, new T5PrepareExtractors(database, data, Integer.MAX_VALUE, false)::run);
 					} else if ("5-prepare-extractors-workshop".equals(task)) {
 						//set boolean variable true if you want to use explicit heuristic file, set number of threads to parallelize
-						(new T5PrepareExtractorsWorkshop(database, data, Integer.MAX_VALUE, false)).run();
+						pipeline.add(data, task, false, new T5PrepareExtractorsWorkshop(database, data, Integer.MAX_VALUE, false,
+								parallelism)::run);
 					} else if ("5-store-partition".equals(task)) {
 						//store the sentences of training and testing split
-						(new T5StorePartitionSentences(database, data)).run();
+						pipeline.add(data, task, false, new T5StorePartitionSentences(database, data)::run);
 					} else if ("6-prepare-datasets-workshop".equals(task)) {
 						//number of partitions
-						(new T6PrepareDatasetWorkshop(database, data, 0,
+						pipeline.add(data, task, false, new T6PrepareDatasetWorkshop(database, data, 0,
 								Paths.get(System.getProperty("user.dir"))
 								.resolve("data")
 								.resolve(data)
-								.resolve("experiment"))).run();
+								.resolve("experiment"), parallelism, line.getOptionValue("dataset-format", "arff"))::run);
 					} else if ("7-prepare-experiments-workshop".equals(task)) {
-						(new T7PrepareExperimentsWorkshop(
+						pipeline.add(data, task, false, new T7PrepareExperimentsWorkshop(
 								database,
 								data,
 								Paths.get(System.getProperty("user.dir"))
 										.resolve("data")
 										.resolve(data)
-										.resolve("experiment")
-						)).run();
+										.resolve("experiment"),
+								parallelism
+						)::run);
 					} else if ("10-build-classifiers".equals(task)) {
-						(new T10BuildClassifiers(
+						pipeline.add(data, task, false, new T10BuildClassifiers(
 								data,
 								Paths.get(System.getProperty("user.dir"))
 										.resolve("data")
 										.resolve(data)
 										.resolve("experiment"),
-								200
-						)).run();
+								classifiers,
+								line.hasOption("classifiers")
+										? List.of(line.getOptionValues("classifiers"))
+										: List.of("randomforest")
+						)::run);
 					} else if ("11-import-classifier-outputs".equals(task)) {
-						(new T11ImportClassifierOutputs(
+						pipeline.add(data, task, false, new T11ImportClassifierOutputs(
 								database,
 								data,
 								Paths.get(System.getProperty("user.dir"))
 										.resolve("data")
 										.resolve(data)
 										.resolve("experiment")
-						)).run();
+						)::run);
+					} else if ("12-classify".equals(task)) {
+						if (!line.hasOption("input")) {
+							throw new IllegalArgumentException("input option is missing");
+						}
+						pipeline.add(data, task, false, new T12ClassifyComments(
+								database,
+								data,
+								Paths.get(System.getProperty("user.dir"))
+										.resolve("data")
+										.resolve(data)
+										.resolve("experiment"),
+								Paths.get(line.getOptionValue("input")),
+								parallelism,
+								line.hasOption("classifiers") ? line.getOptionValues("classifiers")[0] : "randomforest"
+						)::run);
+					} else if ("12-serve-classifier".equals(task)) {
+						//runs until the process is stopped
+						pipeline.add(data, task, false, new T12ClassificationService(
+								database,
+								data,
+								Paths.get(System.getProperty("user.dir"))
+										.resolve("data")
+										.resolve(data)
+										.resolve("experiment"),
+								parallelism,
+								Integer.parseInt(line.getOptionValue("port", "8080")),
+								line.hasOption("classifiers") ? line.getOptionValues("classifiers")[0] : "randomforest"
+						)::run);
 					} else {
 						throw new IllegalArgumentException("task option is unknown");
 					}
 				}
 			}
+			pipeline.run();
 		} catch (ParseException | IllegalArgumentException e) {
 			System.err.println(e.getMessage());
 			HelpFormatter formatter = new HelpFormatter();
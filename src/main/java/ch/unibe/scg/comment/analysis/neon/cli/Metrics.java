@@ -0,0 +1,91 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of a task run by the {@link Pipeline}, stored in {{data}}_metrics once the task is done.
+ * The pipeline makes the metrics of a task current in the thread running it and the threads the task starts inherit
+ * them, so the readers add to the task they work for through {@link #current()}.
+ * A thread of a pool may work for several tasks or outlive the one that created it, so the writers, the parser pools
+ * and the filters take the metrics of the thread creating them and add to these from any thread.
+ * Outside of the pipeline the counters are discarded.
+ */
+public class Metrics {
+
+	private static final Metrics NONE = new Metrics();
+	private static final InheritableThreadLocal<Metrics> CURRENT = new InheritableThreadLocal<>();
+
+	private final Map<Counter, LongAdder> counters;
+	private final AtomicLong peakHeap;
+
+	public Metrics() {
+		super();
+		this.counters = new EnumMap<>(Counter.class);
+		for (Counter counter : Counter.values()) {
+			this.counters.put(counter, new LongAdder());
+		}
+		this.peakHeap = new AtomicLong();
+	}
+
+	/**
+	 * @return metrics of the task run by this thread, or metrics nobody reads
+	 */
+	public static Metrics current() {
+		Metrics metrics = CURRENT.get();
+		return metrics == null ? NONE : metrics;
+	}
+
+	/**
+	 * @param metrics metrics of the task this thread and the threads it starts run, null when it is done
+	 */
+	static void setCurrent(Metrics metrics) {
+		if (metrics == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(metrics);
+		}
+	}
+
+	/**
+	 * @param counter the counter, e.g. {@link Counter#ROWS_IN}
+	 * @param value value to add
+	 */
+	public void add(Counter counter, long value) {
+		this.counters.get(counter).add(value);
+	}
+
+	public long get(Counter counter) {
+		return this.counters.get(counter).sum();
+	}
+
+	/**
+	 * Record the heap used by the process now, the peak is kept.
+	 */
+	public void sampleHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		this.peakHeap.accumulateAndGet(used, Math::max);
+	}
+
+	public long getPeakHeap() {
+		return this.peakHeap.get();
+	}
+
+	public enum Counter {
+
+		/** rows read by the task */
+		ROWS_IN,
+		/** rows inserted through the {@link ch.unibe.scg.comment.analysis.neon.cli.task.SQLiteWriter} of the task */
+		ROWS_OUT,
+		/** time spent in NEON, splitting sentences and extracting heuristics, over all threads */
+		NEON_NANOS,
+		/** time spent in the heuristic and tfidf filters (NEON included), over all threads */
+		FILTER_NANOS,
+		/** time spent executing and committing the inserts */
+		WRITE_NANOS
+
+	}
+
+}
@@ -0,0 +1,258 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import ch.unibe.scg.comment.analysis.neon.cli.task.Utility;
+import org.neon.engine.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+
+/** Content addressed cache of NEON results, shared by the tasks and persisted in the parse_cache table.
+ * The key is the SHA-256 of the NEON version, the kind of result ("split", "paths" or "match:[heuristics id]") and
+ * the preprocessed text, the value is a list of strings. A least recently used map is kept in front of the table.
+ * New entries are batched on the connection of the task and committed with its transactions. A task working without
+ * the database lock defers them until it holds the lock again, see {@link #setDeferred(boolean)}, or passes the lock
+ * and a connection only written by the task, then every batch is committed on it while holding the lock.
+ * @Note: the connection is shared with the task, only use the cache from the thread writing to the connection or
+ * while the writing thread waits.
+ * @connection connection of the task
+ * @writes connection the entries are written on, the connection of the task without a lock
+ * @lock lock of the database taken around each batch, see
+ * {@link ch.unibe.scg.comment.analysis.neon.cli.task.SQLiteWriter#lock(String)}
+ * @capacity number of entries kept in memory
+ */
+public class ParseCache implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParseCache.class);
+	private static final int FORMAT = 1;
+	private static final int BATCH_SIZE = 1000;
+	private static final String NEON_VERSION = neonVersion();
+
+	private final Map<ByteBuffer, List<String>> entries;
+	private final PreparedStatement select;
+	private final PreparedStatement insert;
+	private final Connection writes;
+	private final Lock lock;
+	private int batched;
+	private boolean deferred;
+	private long hits;
+	private long misses;
+
+	public ParseCache(Connection connection) throws IOException, SQLException {
+		this(connection, 100000);
+	}
+
+	public ParseCache(Connection connection, int capacity) throws IOException, SQLException {
+		this(connection, connection, null, capacity);
+	}
+
+	public ParseCache(Connection connection, Connection writes, Lock lock) throws IOException, SQLException {
+		this(connection, writes, lock, 100000);
+	}
+
+	public ParseCache(Connection connection, Connection writes, Lock lock, int capacity)
+			throws IOException, SQLException {
+		if (lock != null) {
+			lock.lock();
+		}
+		try (Statement statement = writes.createStatement()) {
+			statement.executeUpdate(Utility.resource("sql/parse_cache.sql"));
+		} finally {
+			if (lock != null) {
+				lock.unlock();
+			}
+		}
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, List<String>> eldest) {
+				return this.size() > capacity;
+			}
+		};
+		this.select = connection.prepareStatement("SELECT value FROM parse_cache WHERE key = ?");
+		this.insert = writes.prepareStatement("INSERT OR REPLACE INTO parse_cache (key, value) VALUES (?, ?)");
+		this.writes = writes;
+		this.lock = lock;
+	}
+
+	/**
+	 * @param deferred whether new entries are kept batched until {@link #flush()} or {@link #close()}, so the cache
+	 * does not write while the task does not hold the lock of the database, see
+	 * {@link ch.unibe.scg.comment.analysis.neon.cli.task.SQLiteWriter#lock(String)}
+	 */
+	public synchronized void setDeferred(boolean deferred) {
+		this.deferred = deferred;
+	}
+
+	/**
+	 * @param kind kind of result
+	 * @param text preprocessed text
+	 * @return cached result, null if the text has not been processed yet
+	 * @throws SQLException
+	 */
+	public synchronized List<String> get(String kind, String text) throws SQLException {
+		ByteBuffer key = key(kind, text);
+		List<String> value = this.entries.get(key);
+		if (value == null) {
+			this.select.setBytes(1, key.array());
+			try (ResultSet result = this.select.executeQuery()) {
+				if (result.next()) {
+					value = decode(result.getBytes("value"));
+					this.entries.put(key, value);
+				}
+			}
+		}
+		if (value == null) {
+			this.misses = this.misses + 1;
+		} else {
+			this.hits = this.hits + 1;
+		}
+		return value;
+	}
+
+	/**
+	 * @param kind kind of result
+	 * @param text preprocessed text
+	 * @param value result of processing the text with NEON
+	 * @throws SQLException
+	 */
+	public synchronized void put(String kind, String text, List<String> value) throws SQLException {
+		ByteBuffer key = key(kind, text);
+		value = Collections.unmodifiableList(new ArrayList<>(value));
+		this.entries.put(key, value);
+		this.insert.setBytes(1, key.array());
+		this.insert.setBytes(2, encode(value));
+		this.insert.addBatch();
+		this.batched = this.batched + 1;
+		if (this.batched >= BATCH_SIZE && !this.deferred) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Write the batched entries on the connection of the task, committed while holding the lock if there is one.
+	 * @throws SQLException
+	 */
+	public synchronized void flush() throws SQLException {
+		if (this.batched > 0 && this.lock == null) {
+			this.insert.executeBatch();
+			this.batched = 0;
+		} else if (this.batched > 0) {
+			this.lock.lock();
+			boolean autoCommit = this.writes.getAutoCommit();
+			try {
+				this.writes.setAutoCommit(false);
+				this.insert.executeBatch();
+				this.writes.commit();
+			} catch (SQLException e) {
+				this.writes.rollback();
+				throw e;
+			} finally {
+				this.writes.setAutoCommit(autoCommit);
+				this.lock.unlock();
+			}
+			this.batched = 0;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws SQLException {
+		try {
+			this.flush();
+		} finally {
+			this.select.close();
+			this.insert.close();
+		}
+		LOGGER.info("parse_cache {} hits, {} misses", this.hits, this.misses);
+	}
+
+	private static ByteBuffer key(String kind, String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(String.format("%d\0%s\0%s\0", FORMAT, NEON_VERSION, kind).getBytes(StandardCharsets.UTF_8));
+			digest.update(text.getBytes(StandardCharsets.UTF_8));
+			return ByteBuffer.wrap(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] encode(List<String> value) {
+		try (ByteArrayOutputStream buffer = new ByteArrayOutputStream(); DataOutputStream output = new DataOutputStream(
+				buffer)) {
+			output.writeInt(value.size());
+			for (String s : value) {
+				if (s == null) {
+					output.writeInt(-1);
+					continue;
+				}
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+			output.flush();
+			return buffer.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static List<String> decode(byte[] bytes) {
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			int size = input.readInt();
+			List<String> value = new ArrayList<>(size);
+			for (int i = 0; i < size; i = i + 1) {
+				int length = input.readInt();
+				if (length < 0) {
+					value.add(null);
+					continue;
+				}
+				byte[] s = new byte[length];
+				input.readFully(s);
+				value.add(new String(s, StandardCharsets.UTF_8));
+			}
+			return Collections.unmodifiableList(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return version of the NEON library on the class path, results of other versions are not reused
+	 */
+	private static String neonVersion() {
+		try (InputStream input = Parser.class.getClassLoader()
+				.getResourceAsStream("META-INF/maven/org.neon/neon/pom.properties")) {
+			if (input != null) {
+				Properties properties = new Properties();
+				properties.load(input);
+				return properties.getProperty("version", "unknown");
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Unable to read the NEON version", e);
+		}
+		String version = Parser.class.getPackage().getImplementationVersion();
+		return version == null ? "unknown" : version;
+	}
+
+}
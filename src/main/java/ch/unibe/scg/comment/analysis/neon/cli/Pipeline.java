@@ -0,0 +1,272 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import ch.unibe.scg.comment.analysis.neon.cli.task.ClassDelta;
+import ch.unibe.scg.comment.analysis.neon.cli.task.SQLiteWriter;
+import ch.unibe.scg.comment.analysis.neon.cli.task.Utility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/** Runs the tasks of each data source in the given order, the data sources concurrently.
+ * The stage of a task is its number (1-preprocess is stage 1, 10-build-classifiers is stage 10, ...), each stage
+ * depends on the lower stages of the same data source only, the data sources use separate tables. The tasks of a data
+ * source have to be given in stage order, they are not reordered.
+ * The data sources share one sqlite database that allows a single writer, and a read transaction on a connection
+ * cannot be upgraded to a write once another connection committed, see {@link SQLiteWriter#lock(String)}. The tasks
+ * take the database lock around their writes only (e.g. 1 to 3 read on one connection and commit every batch with
+ * the lock on another one), so the NEON and classifier work of the data sources runs concurrently. A task added as
+ * writing holds the lock while it runs instead.
+ * The duration of every task is logged, with a summary once all tasks are done.
+ * Before a task of stage 4 or later runs, a warning is logged for every earlier stage whose output is older than the
+ * last change of the stages 1 to 3, see {@link ClassDelta#stale}. Once such a task is done, the time of its output is
+ * recorded for the later checks.
+ * The {@link Metrics} of every task, done or failed, are stored in {{data}}_metrics under the id of the run, so runs
+ * can be compared. The heap is sampled every {@link #HEAP_SAMPLING} ms while a task runs, it is the heap of the process
+ * and includes the tasks of the other data sources running at the same time.
+ * @database database the metrics are stored in
+ */
+public class Pipeline {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Pipeline.class);
+	private static final long HEAP_SAMPLING = 100;
+
+	private final String path;
+	private final Map<String, List<Stage>> stages; // key = data source, value = its tasks
+	private final Lock database;
+	private final Set<Metrics> running;
+	private String run;
+
+	public Pipeline(String database) {
+		super();
+		this.path = database;
+		this.stages = new LinkedHashMap<>();
+		this.database = SQLiteWriter.lock(database);
+		this.running = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * @param data data source
+	 * @param name task name, starting with its stage number
+	 * @param writes whether the task writes to the database while it runs and holds the database lock for that, false
+	 * if it takes the lock around its writes itself
+	 * @param task the task
+	 * @throws IllegalArgumentException if a later stage of the data source was added before
+	 */
+	public void add(String data, String name, boolean writes, Task task) {
+		List<Stage> stages = this.stages.computeIfAbsent(data, k -> new ArrayList<>());
+		Stage stage = new Stage(data, name, writes, task);
+		if (!stages.isEmpty() && stages.get(stages.size() - 1).number > stage.number) {
+			throw new IllegalArgumentException("task " + name + " is given after " + stages.get(stages.size() - 1).name
+					+ ", give the tasks in stage order");
+		}
+		stages.add(stage);
+	}
+
+	/**
+	 * Run the tasks and wait for all data sources. A failed task stops the later tasks of its data source only.
+	 * @throws Exception the first exception thrown by a task
+	 */
+	public void run() throws Exception {
+		long start = System.nanoTime();
+		this.run = UUID.randomUUID().toString();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.stages.size()));
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(() -> {
+			for (Metrics metrics : this.running) {
+				metrics.sampleHeap();
+			}
+		}, HEAP_SAMPLING, HEAP_SAMPLING, TimeUnit.MILLISECONDS);
+		Exception failure = null;
+		try {
+			List<Future<?>> sources = new ArrayList<>();
+			for (List<Stage> stages : this.stages.values()) {
+				sources.add(executor.submit(() -> {
+					for (Stage stage : stages) {
+						this.run(stage);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> source : sources) {
+				try {
+					source.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			sampler.shutdownNow();
+		}
+		for (List<Stage> stages : this.stages.values()) {
+			for (Stage stage : stages) {
+				LOGGER.info("{} {} {}", stage.data, stage.name, stage.status());
+			}
+		}
+		LOGGER.info("pipeline {} done in {} ms", this.run, (System.nanoTime() - start) / 1000000);
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void run(Stage stage) throws Exception {
+		if (stage.writes) {
+			this.database.lock();
+		}
+		Metrics metrics = new Metrics();
+		Instant started = Instant.now();
+		try {
+			LOGGER.info("Running {} on {}...", stage.name, stage.data);
+			if (stage.number > 3) {
+				this.check(stage);
+			}
+			long start = System.nanoTime();
+			// the threads started by the task inherit its metrics
+			Metrics.setCurrent(metrics);
+			this.running.add(metrics);
+			metrics.sampleHeap();
+			try {
+				stage.task.run();
+			} finally {
+				metrics.sampleHeap();
+				this.running.remove(metrics);
+				Metrics.setCurrent(null);
+				stage.millis = (System.nanoTime() - start) / 1000000;
+			}
+			stage.done = true;
+			LOGGER.info("{} {} done in {} ms", stage.data, stage.name, stage.millis);
+		} finally {
+			try {
+				this.record(stage, started, metrics);
+			} finally {
+				if (stage.writes) {
+					this.database.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Warn about the stages the task reads from that are older than the stages 1 to 3, a failure to check is logged.
+	 */
+	private void check(Stage stage) {
+		try (Connection connection = SQLiteWriter.connect(this.path)) {
+			for (int stale : ClassDelta.stale(connection, stage.data, stage.number)) {
+				LOGGER.warn("{} {} reads the output of stage {}, which is older than the last run of the stages 1 to "
+						+ "3, rerun the stages from {}", stage.data, stage.name, stale, stale);
+			}
+		} catch (SQLException e) {
+			LOGGER.warn("{} {} stale outputs not checked", stage.data, stage.name, e);
+		}
+	}
+
+	/**
+	 * Store the metrics of the task, and the time of its output if it is done, a failure to store them is logged and
+	 * does not fail the task.
+	 */
+	private void record(Stage stage, Instant started, Metrics metrics) {
+		long rows = metrics.get(Metrics.Counter.ROWS_IN);
+		LOGGER.info("{} {} read {} rows, wrote {} rows, NEON {} ms, filters {} ms, writes {} ms, peak heap {} MB",
+				stage.data,
+				stage.name,
+				rows,
+				metrics.get(Metrics.Counter.ROWS_OUT),
+				metrics.get(Metrics.Counter.NEON_NANOS) / 1000000,
+				metrics.get(Metrics.Counter.FILTER_NANOS) / 1000000,
+				metrics.get(Metrics.Counter.WRITE_NANOS) / 1000000,
+				metrics.getPeakHeap() / (1024 * 1024)
+		);
+		// also tasks only reading from the database wait for the writers
+		this.database.lock();
+		try (
+				Connection connection = SQLiteWriter.connect(this.path);
+				Statement statement = connection.createStatement()
+		) {
+			statement.executeUpdate(Utility.resource("sql/metrics.sql").replaceAll("\\{\\{data}}", stage.data));
+			try (
+					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + stage.data + "_metrics "
+							+ "(run_id, task, started, status, millis, rows_in, rows_out, rows_per_sec, neon_millis, "
+							+ "filter_millis, write_millis, peak_heap) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+			) {
+				insert.setString(1, this.run);
+				insert.setString(2, stage.name);
+				insert.setString(3, started.toString());
+				insert.setString(4, stage.done ? "done" : "failed");
+				insert.setLong(5, stage.millis);
+				insert.setLong(6, rows);
+				insert.setLong(7, metrics.get(Metrics.Counter.ROWS_OUT));
+				insert.setDouble(8, rows * 1000.0 / Math.max(1, stage.millis));
+				insert.setLong(9, metrics.get(Metrics.Counter.NEON_NANOS) / 1000000);
+				insert.setLong(10, metrics.get(Metrics.Counter.FILTER_NANOS) / 1000000);
+				insert.setLong(11, metrics.get(Metrics.Counter.WRITE_NANOS) / 1000000);
+				insert.setLong(12, metrics.getPeakHeap());
+				insert.executeUpdate();
+			}
+			// the stages 1 to 3 record their output with their class hashes
+			if (stage.done && stage.number > 3) {
+				ClassDelta.written(connection, stage.data, stage.number);
+			}
+		} catch (SQLException | IOException e) {
+			LOGGER.warn("{} {} metrics not stored", stage.data, stage.name, e);
+		} finally {
+			this.database.unlock();
+		}
+	}
+
+	public interface Task {
+
+		void run() throws Exception;
+
+	}
+
+	private static class Stage {
+
+		private final String data;
+		private final String name;
+		private final int number;
+		private final boolean writes;
+		private final Task task;
+		private long millis;
+		private boolean done;
+
+		private Stage(String data, String name, boolean writes, Task task) {
+			this.data = data;
+			this.name = name;
+			this.number = Integer.parseInt(name.split("-")[0]);
+			this.writes = writes;
+			this.task = task;
+			this.millis = -1;
+		}
+
+		private String status() {
+			if (this.millis < 0) {
+				return "not run";
+			}
+			return (this.done ? "" : "failed after ") + this.millis + " ms";
+		}
+
+	}
+
+}
@@ -0,0 +1,212 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+/** Hand-written equivalent of the regular expression chain that preprocesses comments, see
+ * {@link InstancesBuilder#preprocess(String)}.
+ * The lower cased text is normalized in one pass over the characters (line endings, alphabet, floats, whitespace and
+ * line starts), then eg, ie and etc are rewritten with one pass each, reusing the same two buffers per thread.
+ * Every pass follows the leftmost, non-overlapping matching of the replaced expression so the output is identical.
+ */
+public class Preprocessor {
+
+	private static final ThreadLocal<char[][]> BUFFERS = ThreadLocal.withInitial(() -> new char[2][256]);
+
+	private Preprocessor() {
+		super();
+	}
+
+	public static String preprocess(String s) {
+		if (s == null) {
+			return null;
+		}
+		String text = s.toLowerCase();
+		char[][] buffers = BUFFERS.get();
+		if (buffers[0].length < text.length()) {
+			buffers[0] = new char[text.length()];
+			buffers[1] = new char[text.length()];
+		}
+		char[] in = buffers[0];
+		char[] out = buffers[1];
+		int n = normalize(text, in);
+		n = abbreviate(in, n, out, "eg", true);
+		n = abbreviate(out, n, in, "ie", true);
+		n = abbreviate(in, n, out, "etc", false);
+		int start = 0;
+		while (start < n && out[start] <= ' ') {
+			start = start + 1;
+		}
+		while (n > start && out[n - 1] <= ' ') {
+			n = n - 1;
+		}
+		return new String(out, start, n - start);
+	}
+
+	/**
+	 * Reduce line endings and alphabet, join floats, reduce whitespace runs and remove separators at line starts.
+	 * @return number of characters written
+	 */
+	private static int normalize(String text, char[] out) {
+		int n = 0;
+		boolean content = false; // seen a character other than whitespace, whitespace before is dropped
+		boolean lineStart = true; // at the start of the text or of a line, [ .!?] are dropped
+		boolean whitespace = false; // pending run of whitespace, written once the next character is known
+		int newlines = 0; // newlines in the pending run
+		boolean digit = false; // previous character is a digit
+		boolean joined = false; // current digits follow a joined float, their dot is kept
+		for (int i = 0; i < text.length(); i = i + 1) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				c = '\n';
+				if (i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+					i = i + 1;
+				}
+			} else if (!allowed(c)) {
+				c = ' ';
+			}
+			if (c >= '0' && c <= '9') {
+				digit = true;
+			} else {
+				if (c == '.' && digit && !joined && i + 1 < text.length() && isDigit(text.charAt(i + 1))) {
+					joined = true;
+					continue;
+				}
+				digit = false;
+				joined = false;
+			}
+			if (c == ' ' || c == '\n') {
+				whitespace = true;
+				if (c == '\n') {
+					newlines = newlines + 1;
+				}
+				continue;
+			}
+			if (whitespace && content) {
+				if (newlines > 0) {
+					out[n] = '\n';
+					n = n + 1;
+					if (newlines > 1) {
+						out[n] = '\n';
+						n = n + 1;
+					}
+					lineStart = true;
+				} else if (!lineStart) {
+					out[n] = ' ';
+					n = n + 1;
+				}
+			}
+			whitespace = false;
+			newlines = 0;
+			content = true;
+			if (lineStart && (c == '.' || c == '!' || c == '?')) {
+				continue;
+			}
+			lineStart = false;
+			out[n] = c;
+			n = n + 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Rewrite an abbreviation like (^|[^a-z0-9])e\.? ?g\.? ?($|[^.a-z0-9]) to $1eg$2.
+	 * @param separated whether "\.? ?" is also allowed between the letters
+	 * @return number of characters written
+	 */
+	private static int abbreviate(char[] in, int n, char[] out, String abbreviation, boolean separated) {
+		int written = 0;
+		int copied = 0;
+		int p = 0;
+		while (p < n) {
+			int start; // first letter, $1 is either ^ or in[p]
+			if (p == 0 && in[0] == abbreviation.charAt(0)) {
+				start = 0;
+			} else if (!isAlphanumeric(in[p])) {
+				start = p + 1;
+			} else {
+				p = p + 1;
+				continue;
+			}
+			int i = letters(in, n, start, abbreviation, separated);
+			if (i < 0) {
+				p = p + 1;
+				continue;
+			}
+			int space = i < n && in[i] == '.' ? i + 1 : i;
+			int r = space < n && in[space] == ' ' ? space + 1 : space;
+			int end;
+			int terminator; // position of $2, -1 if matched by $
+			if (r == n || (r == n - 1 && in[r] == '\n')) {
+				// $ also matches before a final line terminator
+				end = r;
+				terminator = -1;
+			} else if (in[r] != '.' && !isAlphanumeric(in[r])) {
+				end = r + 1;
+				terminator = r;
+			} else if (r > space) {
+				// backtrack the optional space, a space is a terminator itself
+				end = space + 1;
+				terminator = space;
+			} else {
+				p = p + 1;
+				continue;
+			}
+			System.arraycopy(in, copied, out, written, start - copied);
+			written = written + start - copied;
+			abbreviation.getChars(0, abbreviation.length(), out, written);
+			written = written + abbreviation.length();
+			if (terminator >= 0) {
+				out[written] = in[terminator];
+				written = written + 1;
+			}
+			copied = end;
+			p = end;
+		}
+		System.arraycopy(in, copied, out, written, n - copied);
+		return written + n - copied;
+	}
+
+	/**
+	 * Match the letters of the abbreviation, optionally separated by "\.? ?".
+	 * @return position after the last letter, -1 if the letters do not match
+	 */
+	private static int letters(char[] in, int n, int i, String abbreviation, boolean separated) {
+		for (int k = 0; k < abbreviation.length(); k = k + 1) {
+			if (i >= n || in[i] != abbreviation.charAt(k)) {
+				return -1;
+			}
+			i = i + 1;
+			if (separated && k < abbreviation.length() - 1) {
+				if (i < n && in[i] == '.') {
+					i = i + 1;
+				}
+				if (i < n && in[i] == ' ') {
+					i = i + 1;
+				}
+			}
+		}
+		return i;
+	}
+
+	private static boolean allowed(char c) {
+		return isAlphanumeric(c)
+				|| c == ','
+				|| c == '.'
+				|| c == '@'
+				|| c == '#'
+				|| c == '&'
+				|| c == '^'
+				|| c == '%'
+				|| c == '!'
+				|| c == '?'
+				|| c == ' '
+				|| c == '\n';
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return (c >= 'a' && c <= 'z') || isDigit(c);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+}
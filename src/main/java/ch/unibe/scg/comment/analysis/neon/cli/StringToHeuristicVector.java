@@ -1,8 +1,5 @@
 package ch.unibe.scg.comment.analysis.neon.cli;
 
-import org.neon.engine.Parser;
-import org.neon.engine.XMLReader;
-import org.neon.model.Heuristic;
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Instance;
@@ -12,24 +9,41 @@ import weka.filters.SimpleStreamFilter;
 import weka.filters.UnsupervisedFilter;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class StringToHeuristicVector extends SimpleStreamFilter implements UnsupervisedFilter {
+/** Appends one binary attribute per heuristic to the instances, set if NEON matches the heuristic in the text
+ * attribute. The parsers and the threads extracting the heuristics are created by the first batch and kept until the
+ * filter is closed, see {@link HeuristicExtractors}.
+ */
+public class StringToHeuristicVector extends SimpleStreamFilter implements UnsupervisedFilter, AutoCloseable {
+
+	private static final int BATCH = 128; // texts per NEON run, see HeuristicMatcher.extract(List)
 
-	private final Parser parser;
 	private int index;
+	private int threads;
 	private List<String> categories;
 	private File heuristics;
+	private HeuristicMatcher matcher;
+	private ParseCache cache;
 	private Instances outputFormat;
+	private HeuristicMatcher compiled;
 	private List<String> featureNames;
+	private HeuristicExtractors extractors; // created on first use, at most one parser per thread
+	private ExecutorService executor; // created on first use with more than one thread
+	private Metrics metrics; // NEON time is added from the threads of the filter
 
 	public StringToHeuristicVector() {
 		super();
-		this.parser = Parser.getInstance();
 		this.index = -1;
+		this.threads = 1;
+		this.metrics = Metrics.current();
 	}
 
 	public List<String> getCategories() {
@@ -48,6 +62,46 @@ public class StringToHeuristicVector extends SimpleStreamFilter implements Unsup
 		this.heuristics = heuristics;
 	}
 
+	public HeuristicMatcher getMatcher() {
+		return this.matcher;
+	}
+
+	/**
+	 * @param matcher compiled heuristics, if not set they are loaded from the heuristics file and categories
+	 */
+	public void setMatcher(HeuristicMatcher matcher) {
+		this.matcher = matcher;
+	}
+
+	public ParseCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * @param cache cache of the matched heuristics, NEON only runs on the texts not cached yet
+	 */
+	public void setCache(ParseCache cache) {
+		this.cache = cache;
+	}
+
+	public int getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * @param threads number of threads extracting the heuristics of a batch, each with its own NEON parser
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param metrics metrics of the task the filter works for, by default those of the thread creating it
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
 	@Override
 	public String globalInfo() {
 		return "Converts the string attribute called 'text' to heuristics using the provided heuristics file for NEON and categories";
@@ -72,14 +126,19 @@ public class StringToHeuristicVector extends SimpleStreamFilter implements Unsup
 		if (inputFormat.attribute("text") == null) {
 			return inputFormat;
 		}
-		if (this.heuristics == null) {
-			throw new Exception("No heuristics file specified!");
-		}
-		if (this.categories == null) {
-			throw new Exception("No categories specified!");
+		if (this.matcher != null) {
+			this.compiled = this.matcher;
+		} else {
+			if (this.heuristics == null) {
+				throw new Exception("No heuristics file specified!");
+			}
+			if (this.categories == null) {
+				throw new Exception("No categories specified!");
+			}
+			this.compiled = HeuristicMatcher.load(this.heuristics, this.categories);
 		}
 		this.index = inputFormat.attribute("text").index();
-		this.featureNames = this.featureNames();
+		this.featureNames = this.compiled.featureNames();
 		ArrayList<Attribute> newAttributes = new ArrayList<>();
 		for (int i = 0; i < inputFormat.numAttributes(); i = i + 1) {
 			newAttributes.add((Attribute) inputFormat.attribute(i).copy());
@@ -91,70 +150,200 @@ public class StringToHeuristicVector extends SimpleStreamFilter implements Unsup
 		return this.outputFormat;
 	}
 
+	/**
+	 * Every batch is buffered instead of processed instance by instance, so it is processed at once by
+	 * {@link #process(Instances)} when the batch is finished, also when the filter is reused for several batches.
+	 */
 	@Override
-	protected Instance process(Instance instance) throws Exception {
+	public boolean input(Instance instance) throws Exception {
 		if (this.index == -1) {
-			return instance;
+			return super.input(instance);
 		}
-		Set<String> matchedFeatureNames = this.matchedFeatureNames(instance.stringValue(this.index));
-		int numAttributes = instance.numAttributes();
-		double[] values = new double[numAttributes + this.featureNames.size()];
-		int i = 0;
-		for (; i < numAttributes; i = i + 1) {
-			values[i] = instance.value(i);
+		if (this.getInputFormat() == null) {
+			throw new IllegalStateException("No input instance format defined");
 		}
-		for (; i < values.length; i = i + 1) {
-			values[i] = matchedFeatureNames.contains(this.featureNames.get(i - numAttributes)) ? 1 : 0;
+		if (this.m_NewBatch) {
+			this.resetQueue();
+			this.m_NewBatch = false;
 		}
-		instance = new SparseInstance(instance.weight(), values);
-		instance.setDataset(this.outputFormat);
-		return instance;
+		this.bufferInput(instance);
+		return false;
+	}
+
+	/**
+	 * Split the texts not cached yet into one contiguous chunk per thread and extract their heuristics in batches of
+	 * {@link #BATCH} texts, then add the instances in the original order. The cache is only used from the calling
+	 * thread.
+	 */
+	@Override
+	protected Instances process(Instances instances) throws Exception {
+		if (this.index == -1 || instances.numInstances() == 0) {
+			return super.process(instances);
+		}
+		int size = instances.numInstances();
+		List<List<String>> matched = new ArrayList<>(size);
+		for (int i = 0; i < size; i = i + 1) {
+			String text = instances.instance(i).stringValue(this.index);
+			matched.add(this.cache == null ? null : this.cache.get(this.kind(), text));
+		}
+		boolean[] extracted = new boolean[size];
+		int workers = Math.min(this.threads, size);
+		if (workers == 1) {
+			this.extract(instances, 0, size, matched, extracted);
+		} else {
+			List<Future<?>> chunks = new ArrayList<>();
+			for (int i = 0; i < workers; i = i + 1) {
+				int from = (int) ((long) size * i / workers);
+				int to = (int) ((long) size * (i + 1) / workers);
+				chunks.add(this.executor().submit(() -> this.extract(instances, from, to, matched, extracted)));
+			}
+			for (Future<?> chunk : chunks) {
+				try {
+					chunk.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		}
+		// the input attributes of the batch hold its string values, which the filter copies to the output
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		for (int i = 0; i < this.outputFormat.numAttributes(); i = i + 1) {
+			attributes.add(i < instances.numAttributes() ? instances.attribute(i) : this.outputFormat.attribute(i));
+		}
+		Instances result = new Instances(this.outputFormat.relationName(), attributes, size);
+		for (int i = 0; i < size; i = i + 1) {
+			Instance instance = instances.instance(i);
+			if (extracted[i] && this.cache != null) {
+				this.cache.put(this.kind(), instance.stringValue(this.index), matched.get(i));
+			}
+			result.add(this.vector(instance, this.compiled.indices(matched.get(i))));
+		}
+		return result;
 	}
 
-	private Set<String> matchedFeatureNames(String text) {
-		return this.parser.extract(text, this.heuristics)
-				.stream()
-				.map(r -> this.featureName(this.category(r.getSentenceClass()), r.getHeuristic()))
-				.collect(Collectors.toSet());
+	/**
+	 * Extract the heuristics of the instances from (inclusive) to (exclusive) that are not matched yet.
+	 */
+	private Void extract(Instances instances, int from, int to, List<List<String>> matched, boolean[] extracted)
+			throws Exception {
+		HeuristicExtractors.Extractor extractor = this.extractors().borrow();
+		try {
+			List<Integer> batch = new ArrayList<>(BATCH);
+			for (int i = from; i < to; i = i + 1) {
+				if (matched.get(i) == null) {
+					batch.add(i);
+				}
+				if (batch.size() == BATCH || (i == to - 1 && !batch.isEmpty())) {
+					List<String> texts = new ArrayList<>(batch.size());
+					for (int j : batch) {
+						texts.add(instances.instance(j).stringValue(this.index));
+					}
+					List<List<String>> results = this.compiled.extract(texts, extractor, this.metrics);
+					for (int j = 0; j < batch.size(); j = j + 1) {
+						matched.set(batch.get(j), results.get(j));
+						extracted[batch.get(j)] = true;
+					}
+					batch.clear();
+				}
+			}
+			return null;
+		} finally {
+			this.extractors().release(extractor);
+		}
 	}
 
-	private List<String> featureNames() {
-		return XMLReader.read(this.heuristics)
-				.stream()
-				.collect(Collectors.groupingBy(Heuristic::getText,
-						Collectors.mapping(h -> this.category(h.getSentence_class()), Collectors.toSet())
-				))
-				.entrySet()
-				.stream()
-				.flatMap(e -> e.getValue().stream().map(c -> this.featureName(c, e.getKey())))
-				.collect(Collectors.toSet())
-				.stream()
-				.sorted()
-				.collect(Collectors.toList());
+	@Override
+	protected Instance process(Instance instance) throws Exception {
+		if (this.index == -1) {
+			return instance;
+		}
+		String text = instance.stringValue(this.index);
+		List<String> matched = this.cache == null ? null : this.cache.get(this.kind(), text);
+		if (matched == null) {
+			HeuristicExtractors.Extractor extractor = this.extractors().borrow();
+			try {
+				matched = this.compiled.extract(List.of(text), extractor, this.metrics).get(0);
+			} finally {
+				this.extractors().release(extractor);
+			}
+			if (this.cache != null) {
+				this.cache.put(this.kind(), text, matched);
+			}
+		}
+		return this.vector(instance, this.compiled.indices(matched));
 	}
 
 	/**
-	 * @return "heuristic-[category]-[heuristic]"
+	 * Stop the threads and close the parsers of the filter.
+	 * @throws IOException
 	 */
-	private String featureName(String category, String heuristic) {
-		return String.format("heuristic-%s-%s", category, heuristic);
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+		if (this.extractors != null) {
+			this.extractors.close();
+			this.extractors = null;
+		}
+	}
+
+	private synchronized HeuristicExtractors extractors() {
+		if (this.extractors == null) {
+			this.extractors = new HeuristicExtractors(this.threads);
+		}
+		return this.extractors;
+	}
+
+	private synchronized ExecutorService executor() {
+		if (this.executor == null) {
+			this.executor = Executors.newFixedThreadPool(this.threads);
+		}
+		return this.executor;
 	}
 
 	/**
-	 * Finds the category matching the heuristic class. As NEON processes labels, normalization is required.
-	 *
-	 * @param heuristicClass
-	 * @return
+	 * @return kind of the cached results, the matches depend on the heuristics
 	 */
-	private String category(String heuristicClass) {
-		return this.categories.stream()
-				.filter(c -> this.normalize(c).equals(this.normalize(heuristicClass)))
-				.findFirst()
-				.get();
+	private String kind() {
+		return "match:" + this.compiled.id();
 	}
 
-	private String normalize(String s) {
-		return s.toLowerCase().replaceAll("[^a-z0-9]", "");
+	/**
+	 * @param matched indices of the matched heuristics in the feature names
+	 * @return the instance with the heuristic attributes appended
+	 */
+	private Instance vector(Instance instance, int[] matched) {
+		int numAttributes = instance.numAttributes();
+		int numValues = instance.numValues();
+		// non-zero input values followed by the matched heuristics, as the heuristic attributes come last
+		double[] values = new double[numValues + matched.length];
+		int[] indices = new int[numValues + matched.length];
+		int n = 0;
+		for (int i = 0; i < numValues; i = i + 1) {
+			double value = instance.valueSparse(i);
+			if (value != 0) {
+				values[n] = value;
+				indices[n] = instance.index(i);
+				n = n + 1;
+			}
+		}
+		for (int i : matched) {
+			values[n] = 1;
+			indices[n] = numAttributes + i;
+			n = n + 1;
+		}
+		if (n < values.length) {
+			values = Arrays.copyOf(values, n);
+			indices = Arrays.copyOf(indices, n);
+		}
+		instance = new SparseInstance(instance.weight(), values, indices, numAttributes + this.featureNames.size());
+		instance.setDataset(this.outputFormat);
+		return instance;
 	}
 
 }
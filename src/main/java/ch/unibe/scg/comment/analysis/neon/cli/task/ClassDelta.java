@@ -0,0 +1,252 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Classes of _0_raw added, changed or removed since a stage last processed them, for the incremental mode of 1-3.
+ * Each stage records a SHA-256 of every _0_raw row it processed in {{data}}_class_hash. The delta of a stage are the
+ * classes whose row hash differs from the recorded one, the recorded classes no longer in _0_raw and the classes in
+ * the output of the stage without a recorded hash (e.g. written by a run that did not finish). The delta is loaded
+ * into the temporary table delta of the connection, so the stage deletes and recomputes the rows of these classes,
+ * and the hashes the later stages recorded for them are dropped. A stage recomputing all classes drops all hashes of
+ * the later stages.
+ * The time a stage last changed its output is kept in {{data}}_stage_written, for the stages 4 and later too, so a
+ * stage can tell whether the output it reads is older than the rows the stages 1 to 3 rewrote, see {@link #stale}.
+ * @connection connection of the stage
+ * @data language under analysis
+ * @stage number of the stage
+ */
+public class ClassDelta {
+
+	private final Connection connection;
+	private final String data;
+	private final int stage;
+	private final Map<String, byte[]> hashes; // key = class, value = hash of its _0_raw row
+	private Set<String> delta; // null if the stage recomputes all classes
+
+	public ClassDelta(Connection connection, String data, int stage) throws IOException, SQLException {
+		this.connection = connection;
+		this.data = data;
+		this.stage = stage;
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Utility.resource("sql/class_hash.sql").replaceAll("\\{\\{data}}", data));
+			this.hashes = hashes(statement, data);
+		}
+	}
+
+	/**
+	 * @param table table of the database
+	 * @return whether the table (or view) exists
+	 * @throws SQLException
+	 */
+	public boolean exists(String table) throws SQLException {
+		try (
+				PreparedStatement select = this.connection.prepareStatement(
+						"SELECT 1 FROM sqlite_master WHERE name = ?")
+		) {
+			select.setString(1, table);
+			try (ResultSet result = select.executeQuery()) {
+				return result.next();
+			}
+		}
+	}
+
+	/**
+	 * Compute the delta and load it into the temporary table delta.
+	 * @param created whether the output of the stage was just created, then nothing recorded is reused
+	 * @param classes query of the classes in the output of the stage
+	 * @return the classes of the delta
+	 * @throws SQLException
+	 */
+	public Set<String> load(boolean created, String classes) throws SQLException {
+		Set<String> delta = new LinkedHashSet<>();
+		try (Statement statement = this.connection.createStatement()) {
+			Map<String, byte[]> recorded = new HashMap<>();
+			if (!created) {
+				try (
+						ResultSet result = statement.executeQuery("SELECT class, hash FROM " + this.data
+								+ "_class_hash WHERE stage = " + this.stage)
+				) {
+					while (result.next()) {
+						recorded.put(result.getString("class"), result.getBytes("hash"));
+					}
+				}
+			}
+			for (Map.Entry<String, byte[]> hash : this.hashes.entrySet()) {
+				if (!Arrays.equals(hash.getValue(), recorded.get(hash.getKey()))) {
+					delta.add(hash.getKey());
+				}
+			}
+			for (String clazz : recorded.keySet()) {
+				if (!this.hashes.containsKey(clazz)) {
+					delta.add(clazz);
+				}
+			}
+			try (ResultSet result = statement.executeQuery(classes)) {
+				while (result.next()) {
+					if (!recorded.containsKey(result.getString(1))) {
+						delta.add(result.getString(1));
+					}
+				}
+			}
+			statement.executeUpdate("DROP TABLE IF EXISTS temp.delta");
+			statement.executeUpdate("CREATE TEMP TABLE delta (class TEXT NOT NULL PRIMARY KEY)");
+		}
+		try (SQLiteWriter insert = new SQLiteWriter(this.connection, "delta", "INSERT INTO temp.delta (class) VALUES (?)")) {
+			for (String clazz : delta) {
+				insert.insert(clazz);
+			}
+		}
+		this.delta = delta;
+		// the later stages read the rows recomputed for the delta, they have to recompute these classes as well
+		try (Statement statement = this.connection.createStatement()) {
+			statement.executeUpdate("DELETE FROM " + this.data + "_class_hash WHERE stage > " + this.stage
+					+ " AND class IN (SELECT class FROM temp.delta)");
+		}
+		return delta;
+	}
+
+	/**
+	 * Record the hashes of all classes of _0_raw as processed by the stage, once its output is written. Without a
+	 * delta loaded the stage recomputed all classes, the later stages have to recompute all of them as well.
+	 * @throws SQLException
+	 */
+	public void record() throws SQLException, IOException {
+		try (
+				SQLiteWriter insert = new SQLiteWriter(this.connection, this.data + "_class_hash",
+						"INSERT INTO " + this.data + "_class_hash (stage, class, hash) VALUES (?, ?, ?)");
+				Statement statement = this.connection.createStatement()
+		) {
+			// in the transaction of the writer, the previous hashes are only replaced as a whole
+			statement.executeUpdate("DELETE FROM " + this.data + "_class_hash WHERE stage = " + this.stage);
+			if (this.delta == null) {
+				statement.executeUpdate("DELETE FROM " + this.data + "_class_hash WHERE stage > " + this.stage);
+			}
+			for (Map.Entry<String, byte[]> hash : this.hashes.entrySet()) {
+				insert.insert(this.stage, hash.getKey(), hash.getValue());
+			}
+		}
+		// an empty delta left the output as it was
+		if (this.delta == null || !this.delta.isEmpty()) {
+			written(this.connection, this.data, this.stage);
+		}
+	}
+
+	/**
+	 * Record that the stage changed its output now.
+	 * @param connection connection of the stage
+	 * @param data language under analysis
+	 * @param stage number of the stage
+	 * @throws SQLException
+	 */
+	public static void written(Connection connection, String data, int stage) throws SQLException, IOException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Utility.resource("sql/stage_written.sql").replaceAll("\\{\\{data}}", data));
+		}
+		try (
+				PreparedStatement insert = connection.prepareStatement("INSERT OR REPLACE INTO " + data
+						+ "_stage_written (stage, written) VALUES (?, ?)")
+		) {
+			insert.setInt(1, stage);
+			insert.setLong(2, System.currentTimeMillis());
+			insert.executeUpdate();
+		}
+	}
+
+	/**
+	 * The stages before the given one whose output is older than the output of one of the stages 1 to 3 before them,
+	 * they were computed from rows rewritten since. Only the stages that recorded their output are compared.
+	 * @param connection connection of the stage
+	 * @param data language under analysis
+	 * @param stage number of the stage about to run
+	 * @return numbers of the stale stages
+	 * @throws SQLException
+	 */
+	public static List<Integer> stale(Connection connection, String data, int stage) throws SQLException {
+		Map<Integer, Long> written = new TreeMap<>();
+		try (
+				PreparedStatement select = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE name = ?")
+		) {
+			select.setString(1, data + "_stage_written");
+			try (ResultSet result = select.executeQuery()) {
+				if (!result.next()) {
+					return List.of();
+				}
+			}
+		}
+		try (
+				PreparedStatement select = connection.prepareStatement("SELECT stage, written FROM " + data
+						+ "_stage_written WHERE stage < ?")
+		) {
+			select.setInt(1, stage);
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					written.put(result.getInt("stage"), result.getLong("written"));
+				}
+			}
+		}
+		List<Integer> stale = new ArrayList<>();
+		long newest = Long.MIN_VALUE;
+		for (Map.Entry<Integer, Long> entry : written.entrySet()) {
+			if (entry.getValue() < newest) {
+				stale.add(entry.getKey());
+			}
+			if (entry.getKey() <= 3) {
+				newest = Math.max(newest, entry.getValue());
+			}
+		}
+		return stale;
+	}
+
+	/**
+	 * @return key = class, value = SHA-256 of all columns of its _0_raw row
+	 */
+	private static Map<String, byte[]> hashes(Statement statement, String data) throws SQLException {
+		Map<String, byte[]> hashes = new LinkedHashMap<>();
+		try (ResultSet result = statement.executeQuery("SELECT * FROM " + data + "_0_raw")) {
+			int columns = result.getMetaData().getColumnCount();
+			MessageDigest digest = digest();
+			while (result.next()) {
+				for (int i = 1; i <= columns; i = i + 1) {
+					String value = result.getString(i);
+					if (value == null) {
+						digest.update((byte) 0);
+					} else {
+						byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+						digest.update((byte) 1);
+						digest.update(String.valueOf(bytes.length).getBytes(StandardCharsets.UTF_8));
+						digest.update((byte) ':');
+						digest.update(bytes);
+					}
+				}
+				hashes.put(result.getString("class"), digest.digest());
+			}
+		}
+		return hashes;
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Classifies new comments with the extractors of 5-prepare-extractors and the classifiers of 10-build-classifiers.
+ * A comment is preprocessed and split like in 1-preprocess and 2-split-sentences, its sentences are featurized like the
+ * training partition in 6-prepare-datasets-workshop and classified by the classifier of each category that has one.
+ * The features are matched by name to the header of the training dataset of the classifier, so the instances have the
+ * layout of 7-prepare-experiments-workshop.
+ * The extractors, classifiers and filters are loaded once, {@link #classify(List)} can be called from several threads.
+ * A thread classifying takes a builder with prepared filters from a pool, a new one is only prepared when all builders
+ * are in use, so the dictionary and heuristics are read once per thread classifying at the same time.
+ * @data language under analysis
+ * @directory directory of the experiment, with the training datasets and the classifiers
+ * @classifier name of the classifiers, e.g. randomforest
+ */
+public class CommentClassifier implements AutoCloseable {
+
+	private static final int EXTRACTORS_PARTITION = 0;
+	private static final int TRAINING_PARTITION = 0;
+
+	private final String data;
+	private final List<String> categories;
+	private final Extractors extractors;
+	private final Map<String, Model> models; // key = category, only the categories with a classifier
+	private final Queue<InstancesBuilder> builders; // builders with prepared filters, not in use
+	private final Metrics metrics; // of the task loading the classifier, the builders may be prepared on pool threads
+
+	private CommentClassifier(String data, List<String> categories, Extractors extractors, Map<String, Model> models)
+			throws Exception {
+		super();
+		this.data = data;
+		this.categories = categories;
+		this.extractors = extractors;
+		this.models = models;
+		this.metrics = Metrics.current();
+		this.builders = new ConcurrentLinkedQueue<>();
+		this.builders.add(this.builder());
+	}
+
+	/**
+	 * @param connection database with the raw comments and the extractors
+	 * @return classifier of the categories that have a classifier in the directory
+	 * @throws Exception
+	 */
+	public static CommentClassifier load(Connection connection, String data, Path directory, String classifier)
+			throws Exception {
+		List<String> categories = new ArrayList<>();
+		try (Statement statement = connection.createStatement()) {
+			// the categories of the heuristics, in the order of 6-prepare-datasets-workshop
+			try (
+					ResultSet result = statement.executeQuery(
+							"SELECT name FROM PRAGMA_TABLE_INFO('" + data + "_0_raw') ORDER BY name ASC")
+			) {
+				while (result.next()) {
+					categories.add(result.getString("name"));
+				}
+			}
+			categories.remove("class");
+			categories.remove("stratum");
+			categories.remove("comment");
+			Extractors extractors = Extractors.load(statement, data, EXTRACTORS_PARTITION, categories);
+			try {
+				Map<String, Model> models = new LinkedHashMap<>();
+				for (String category : categories) {
+					String prefix = String.format("%d-%d-%s-tfidf-heuristic",
+							TRAINING_PARTITION,
+							EXTRACTORS_PARTITION,
+							category.toLowerCase().replaceAll("[^a-z0-9]", "")
+					);
+					Path training = directory.resolve(String.format("%s.arff", prefix));
+					Path model = directory.resolve(String.format("%s-%s.classifier", prefix, classifier));
+					if (Files.exists(training) && Files.exists(model)) {
+						models.put(category, new Model(training, model));
+					}
+				}
+				if (models.isEmpty()) {
+					throw new IllegalArgumentException("no " + classifier + " classifier in " + directory);
+				}
+				return new CommentClassifier(data, categories, extractors, models);
+			} catch (Exception e) {
+				extractors.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return categories with a classifier, in the order of the probabilities of {@link #classify(List)}
+	 */
+	public List<String> getCategories() {
+		return new ArrayList<>(this.models.keySet());
+	}
+
+	/**
+	 * Preprocess and split a comment into sentences, like 1-preprocess and 2-split-sentences.
+	 * @param splitters NEON parsers
+	 * @param comment raw comment
+	 * @return sentences of the comment
+	 * @throws Exception
+	 */
+	public static List<String> split(SentenceSplitterPool splitters, String comment) throws Exception {
+		String text = InstancesBuilder.preprocess(comment);
+		if (text == null || text.isEmpty()) {
+			return List.of();
+		}
+		return splitters.split(text);
+	}
+
+	/**
+	 * Featurize the sentences at once and classify them with the classifier of each category.
+	 * @param sentences sentences of the comments
+	 * @return per sentence, the probability of each category of {@link #getCategories()}
+	 * @throws Exception
+	 */
+	public double[][] classify(List<String> sentences) throws Exception {
+		double[][] probabilities = new double[sentences.size()][this.models.size()];
+		if (sentences.isEmpty()) {
+			return probabilities;
+		}
+		InstancesBuilder builder = this.builders.poll();
+		if (builder == null) {
+			builder = this.builder();
+		}
+		Instances features;
+		try {
+			features = builder.features(sentences);
+		} finally {
+			this.builders.add(builder);
+		}
+		int c = 0;
+		for (Model model : this.models.values()) {
+			int[] indices = model.indices(features);
+			for (int i = 0; i < features.numInstances(); i = i + 1) {
+				probabilities[i][c] = model.classify(features.instance(i), indices);
+			}
+			c = c + 1;
+		}
+		return probabilities;
+	}
+
+	/**
+	 * @return builder featurizing like the training partition, with its filters prepared
+	 * @throws Exception
+	 */
+	private InstancesBuilder builder() throws Exception {
+		InstancesBuilder builder = new InstancesBuilder(
+				String.format("%s-features-%d-%d", this.data, EXTRACTORS_PARTITION, TRAINING_PARTITION),
+				this.categories,
+				this.extractors.getHeuristics().toFile(),
+				this.extractors.getDictionary().toFile()
+		);
+		builder.setMatcher(this.extractors.getMatcher());
+		builder.setMetrics(this.metrics);
+		builder.setPartition(TRAINING_PARTITION);
+		builder.prepare();
+		return builder;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			for (InstancesBuilder builder = this.builders.poll(); builder != null; builder = this.builders.poll()) {
+				builder.close();
+			}
+		} finally {
+			this.extractors.close();
+		}
+	}
+
+	/** Classifier of a category and the header of its training dataset, the label is the last attribute.
+	 */
+	private static class Model {
+
+		private final Instances header;
+		private final Classifier classifier;
+		private final int positive; // index of the label value "1"
+
+		private Model(Path training, Path classifier) throws Exception {
+			ArffLoader loader = new ArffLoader();
+			loader.setFile(training.toFile());
+			this.header = loader.getStructure(); // reads the header only
+			loader.reset();
+			this.header.setClassIndex(this.header.numAttributes() - 1);
+			this.classifier = (Classifier) SerializationHelper.read(classifier.toAbsolutePath().toString());
+			this.positive = this.header.classAttribute().indexOfValue("1");
+		}
+
+		/**
+		 * @param features featurized sentences
+		 * @return key = index of a feature, value = index of the attribute of the header, -1 if the header has none
+		 */
+		private int[] indices(Instances features) {
+			int[] indices = new int[features.numAttributes()];
+			int last = -1;
+			for (int i = 0; i < features.numAttributes(); i = i + 1) {
+				Attribute attribute = this.header.attribute(features.attribute(i).name());
+				indices[i] = attribute == null || attribute.index() == this.header.classIndex() ? -1 : attribute.index();
+				// 7 keeps the order of the features, so the sparse values stay sorted by attribute
+				if (indices[i] >= 0) {
+					if (indices[i] < last) {
+						throw new IllegalStateException("features are not in the order of the training dataset");
+					}
+					last = indices[i];
+				}
+			}
+			return indices;
+		}
+
+		/**
+		 * @return probability of the label "1"
+		 */
+		private double classify(Instance features, int[] indices) throws Exception {
+			int numValues = features.numValues();
+			double[] values = new double[numValues + 1];
+			int[] attributes = new int[numValues + 1];
+			int n = 0;
+			for (int i = 0; i < numValues; i = i + 1) {
+				int index = indices[features.index(i)];
+				if (index >= 0 && features.valueSparse(i) != 0) {
+					values[n] = features.valueSparse(i);
+					attributes[n] = index;
+					n = n + 1;
+				}
+			}
+			// the label, last attribute, is unknown
+			values[n] = Utils.missingValue();
+			attributes[n] = this.header.classIndex();
+			n = n + 1;
+			Instance instance = new SparseInstance(1,
+					Arrays.copyOf(values, n),
+					Arrays.copyOf(attributes, n),
+					this.header.numAttributes()
+			);
+			instance.setDataset(this.header);
+			return this.classifier.distributionForInstance(instance)[this.positive];
+		}
+
+	}
+
+}
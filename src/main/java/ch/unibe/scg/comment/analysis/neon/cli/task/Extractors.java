@@ -0,0 +1,129 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.HeuristicMatcher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.Stream;
+
+/** Heuristics and dictionary of an extractors partition, in a temporary directory while they are used.
+ * NEON and the tfidf filter read them from files, the heuristics are compiled once into the matcher.
+ * @directory temporary directory, deleted when closed
+ * @heuristics heuristics file
+ * @dictionary tfidf dictionary file
+ * @matcher compiled heuristics
+ */
+public class Extractors implements AutoCloseable {
+
+	private final Path directory;
+	private final Path heuristics;
+	private final Path dictionary;
+	private final HeuristicMatcher matcher;
+
+	private Extractors(Path directory, Path heuristics, Path dictionary, HeuristicMatcher matcher) {
+		super();
+		this.directory = directory;
+		this.heuristics = heuristics;
+		this.dictionary = dictionary;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * load the extractors of the partition, stored by 5-prepare-extractors
+	 * @param statement
+	 * @param data language under analysis
+	 * @param partition extractors partition
+	 * @param categories categories of the heuristics
+	 * @return extractors, their files are deleted when closed
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public static Extractors load(Statement statement, String data, int partition, List<String> categories)
+			throws SQLException, IOException {
+		// tables of 5-prepare-extractors runs before the compiled heuristics have no such column
+		String compiledColumn = compiled(statement, data) ? "heuristics_compiled" : "NULL AS heuristics_compiled";
+		try (
+				ResultSet result = statement.executeQuery(
+						"SELECT heuristics, " + compiledColumn + ", dictionary FROM " + data
+								+ "_5_extractors WHERE partition = " + partition + "")
+		) {
+			result.next();
+			Path directory = Files.createTempDirectory("extractors");
+			try {
+				Path heuristics = Files.write(directory.resolve("heuristics.xml"), result.getBytes("heuristics"));
+				Path dictionary = Files.write(directory.resolve("dictionary.csv"), result.getBytes("dictionary"));
+				byte[] compiled = result.getBytes("heuristics_compiled");
+				HeuristicMatcher matcher = compiled == null
+						? HeuristicMatcher.load(heuristics.toFile(), categories)
+						: HeuristicMatcher.load(heuristics.toFile(), compiled, categories);
+				return new Extractors(directory, heuristics, dictionary, matcher);
+			} catch (IOException | RuntimeException e) {
+				delete(directory);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Create the table of the extractors, or add the column of the compiled heuristics to the table of an earlier run.
+	 * @param statement
+	 * @param data language under analysis
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public static void create(Statement statement, String data) throws SQLException, IOException {
+		statement.executeUpdate(Utility.resource("sql/5_extractors.sql").replaceAll("\\{\\{data}}", data));
+		if (!compiled(statement, data)) {
+			statement.executeUpdate("ALTER TABLE " + data + "_5_extractors ADD COLUMN heuristics_compiled BLOB");
+		}
+	}
+
+	/**
+	 * @return whether the table of the extractors has the column of the compiled heuristics
+	 */
+	private static boolean compiled(Statement statement, String data) throws SQLException {
+		try (
+				ResultSet result = statement.executeQuery(
+						"SELECT name FROM PRAGMA_TABLE_INFO('" + data + "_5_extractors')")
+		) {
+			while (result.next()) {
+				if ("heuristics_compiled".equals(result.getString("name"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public Path getHeuristics() {
+		return this.heuristics;
+	}
+
+	public Path getDictionary() {
+		return this.dictionary;
+	}
+
+	public HeuristicMatcher getMatcher() {
+		return this.matcher;
+	}
+
+	@Override
+	public void close() throws IOException {
+		delete(this.directory);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			for (Path path : (Iterable<Path>) paths::iterator) {
+				Files.delete(path);
+			}
+		}
+		Files.delete(directory);
+	}
+
+}
@@ -0,0 +1,123 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import weka.classifiers.Classifier;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/** Manifest of the built classifiers, to skip the builds whose inputs did not change.
+ * Each build is recorded under its name with a key, the SHA-256 of the training and test ARFF, the classifier class
+ * and its options. A build is current if its recorded key matches and its outputs still exist.
+ * The manifest is a properties file, rewritten after each recorded build.
+ * @manifest manifest file, created on the first recorded build
+ */
+public class ModelCache {
+
+	private final Path manifest;
+	private final Properties keys;
+
+	public ModelCache(Path manifest) throws IOException {
+		this.manifest = manifest;
+		this.keys = new Properties();
+		if (Files.exists(manifest)) {
+			try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+				this.keys.load(reader);
+			}
+		}
+	}
+
+	/**
+	 * @param files inputs of the builds
+	 * @return SHA-256 of the contents of the files
+	 * @throws IOException
+	 */
+	public static String hash(Path... files) throws IOException {
+		MessageDigest digest = digest();
+		byte[] buffer = new byte[65536];
+		for (Path file : files) {
+			try (InputStream input = Files.newInputStream(file)) {
+				for (int n = input.read(buffer); n >= 0; n = input.read(buffer)) {
+					digest.update(buffer, 0, n);
+				}
+			}
+			digest.update((byte) 0);
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @param inputs hash of the inputs, see {@link #hash(Path...)}
+	 * @param classifier classifier to build, with the options it is built with
+	 * @param settings other settings the build depends on
+	 * @return key of the build
+	 */
+	public static String key(String inputs, Classifier classifier, String settings) {
+		String options = classifier instanceof OptionHandler ? Utils.joinOptions(((OptionHandler) classifier).getOptions()) : "";
+		MessageDigest digest = digest();
+		digest.update(String.format("%s\0%s\0%s\0%s", inputs, classifier.getClass().getName(), options, settings)
+				.getBytes(StandardCharsets.UTF_8));
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @param name name of the build
+	 * @param key key of the build, see {@link #key(String, Classifier, String)}
+	 * @param outputs files written by the build
+	 * @return whether the build was recorded with the same key and its outputs exist
+	 */
+	public synchronized boolean isCurrent(String name, String key, Path... outputs) {
+		if (!key.equals(this.keys.getProperty(name))) {
+			return false;
+		}
+		for (Path output : outputs) {
+			if (!Files.exists(output)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Record the build once its outputs are written.
+	 * @param name name of the build
+	 * @param key key of the build
+	 * @throws IOException
+	 */
+	public synchronized void record(String name, String key) throws IOException {
+		this.keys.setProperty(name, key);
+		// replace the manifest at once, an interrupted run leaves the previous one
+		Path temporary = this.manifest.resolveSibling(this.manifest.getFileName() + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			this.keys.store(writer, null);
+		}
+		Files.move(temporary, this.manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,110 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/** Aho-Corasick automaton over a fixed list of patterns.
+ * Finds all patterns contained in a text in one scan of the text, pattern i is contained iff text.contains(patterns.get(i)).
+ * @patterns patterns to index, the position in the list is the pattern index
+ */
+public class MultiPatternMatcher {
+
+	private final List<Map<Character, Integer>> transitions;
+	private final List<int[]> outputs;
+	private final int[] failure;
+	private final int[] dictionary; // closest node on the failure chain with outputs, -1 if none
+	private final int[] empty; // empty patterns are contained in any text
+
+	public MultiPatternMatcher(List<String> patterns) {
+		this.transitions = new ArrayList<>();
+		this.outputs = new ArrayList<>();
+		this.node();
+		for (int i = 0; i < patterns.size(); i = i + 1) {
+			String pattern = patterns.get(i);
+			int node = 0;
+			for (int j = 0; j < pattern.length(); j = j + 1) {
+				Integer next = this.transitions.get(node).get(pattern.charAt(j));
+				if (next == null) {
+					next = this.node();
+					this.transitions.get(node).put(pattern.charAt(j), next);
+				}
+				node = next;
+			}
+			int[] output = this.outputs.get(node);
+			int[] extended = new int[output.length + 1];
+			System.arraycopy(output, 0, extended, 0, output.length);
+			extended[output.length] = i;
+			this.outputs.set(node, extended);
+		}
+		this.empty = this.outputs.get(0);
+		this.failure = new int[this.transitions.size()];
+		this.dictionary = new int[this.transitions.size()];
+		this.dictionary[0] = -1;
+		// breadth first, failure of a node is always closer to the root than the node itself
+		Queue<Integer> queue = new ArrayDeque<>();
+		for (int child : this.transitions.get(0).values()) {
+			this.failure[child] = 0;
+			this.dictionary[child] = -1;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int node = queue.remove();
+			for (Map.Entry<Character, Integer> edge : this.transitions.get(node).entrySet()) {
+				int child = edge.getValue();
+				this.failure[child] = this.next(this.failure[node], edge.getKey());
+				int failure = this.failure[child];
+				this.dictionary[child] = failure != 0 && this.outputs.get(failure).length > 0
+						? failure
+						: this.dictionary[failure];
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @param text text to scan
+	 * @return indices of all patterns contained in the text
+	 */
+	public BitSet matches(String text) {
+		BitSet matches = new BitSet();
+		for (int pattern : this.empty) {
+			matches.set(pattern);
+		}
+		int node = 0;
+		for (int i = 0; i < text.length(); i = i + 1) {
+			node = this.next(node, text.charAt(i));
+			for (int output = this.outputs.get(node).length > 0 ? node : this.dictionary[node]; output > 0;
+					output = this.dictionary[output]) {
+				for (int pattern : this.outputs.get(output)) {
+					matches.set(pattern);
+				}
+			}
+		}
+		return matches;
+	}
+
+	private int next(int node, char c) {
+		while (true) {
+			Integer next = this.transitions.get(node).get(c);
+			if (next != null) {
+				return next;
+			}
+			if (node == 0) {
+				return 0;
+			}
+			node = this.failure[node];
+		}
+	}
+
+	private int node() {
+		this.transitions.add(new HashMap<>());
+		this.outputs.add(new int[0]);
+		return this.transitions.size() - 1;
+	}
+
+}
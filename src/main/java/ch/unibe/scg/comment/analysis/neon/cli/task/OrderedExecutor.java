@@ -0,0 +1,99 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Computes tasks on a work-stealing pool and hands their results to a single sink in submission order.
+ * The submitting thread is the only one calling the sink, so the sink can own the database connection.
+ * At most window tasks are in flight, submit blocks on the oldest one when the window is full which bounds memory.
+ * With one thread the tasks run directly in the submitting thread.
+ * The workers can be shared by several executors, e.g. the stages of a stream, so together they use threads workers.
+ * @threads number of worker threads
+ * @sink consumer of the results, e.g. the writer of the output table
+ */
+public class OrderedExecutor<T> implements AutoCloseable {
+
+	private final ExecutorService executor;
+	private final boolean owned; // whether the workers are shut down with this executor
+	private final Deque<Future<T>> pending;
+	private final int window;
+	private final Sink<T> sink;
+
+	public OrderedExecutor(int threads, Sink<T> sink) {
+		this(threads > 1 ? Executors.newWorkStealingPool(threads) : null, true, threads, sink);
+	}
+
+	/**
+	 * @param workers workers shared with other executors, shut down by the caller, null to run the tasks directly in
+	 * the submitting thread, see {@link #workers(int)}
+	 */
+	public OrderedExecutor(ExecutorService workers, int threads, Sink<T> sink) {
+		this(workers, false, threads, sink);
+	}
+
+	private OrderedExecutor(ExecutorService executor, boolean owned, int threads, Sink<T> sink) {
+		this.executor = executor;
+		this.owned = owned;
+		this.pending = new ArrayDeque<>();
+		this.window = 4 * threads;
+		this.sink = sink;
+	}
+
+	/**
+	 * @return workers to share between executors, null with one thread
+	 */
+	public static ExecutorService workers(int threads) {
+		return threads > 1 ? Executors.newWorkStealingPool(threads) : null;
+	}
+
+	public void submit(Callable<T> task) throws Exception {
+		if (this.executor == null) {
+			this.sink.accept(task.call());
+			return;
+		}
+		this.pending.add(this.executor.submit(task));
+		while (this.pending.size() >= this.window) {
+			this.drain();
+		}
+	}
+
+	/**
+	 * Wait for all submitted tasks and hand their results to the sink.
+	 * @throws Exception the first exception thrown by a task or the sink
+	 */
+	public void finish() throws Exception {
+		while (!this.pending.isEmpty()) {
+			this.drain();
+		}
+	}
+
+	private void drain() throws Exception {
+		try {
+			this.sink.accept(this.pending.remove().get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (this.executor != null && this.owned) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	public interface Sink<T> {
+
+		void accept(T result) throws Exception;
+
+	}
+
+}
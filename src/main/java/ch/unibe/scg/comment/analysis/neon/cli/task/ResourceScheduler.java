@@ -0,0 +1,196 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Runs jobs of estimated memory cost on a bounded number of cores and heap, the most expensive jobs first.
+ * A job is admitted when a core is free and its estimated memory fits in the remaining budget, the most expensive
+ * waiting job that fits is picked. A job larger than the whole budget only runs alone. Each job is given a number of
+ * cores (execution slots) when admitted, the free cores are shared with the waiting jobs that fit in the remaining
+ * memory, so a job running alone uses all cores and the total stays within the cores of the scheduler.
+ * The cores and heap are a {@link Budget} that schedulers running at the same time can share, e.g. the schedulers
+ * building the classifiers of several data sources, so together they stay within the cores and heap of the process.
+ * @budget cores and heap in bytes the jobs may use together
+ */
+public class ResourceScheduler {
+
+	private final Budget budget;
+	private final List<Job> waiting;
+	private int running; // jobs of this scheduler running
+	private Exception failure;
+
+	public ResourceScheduler(int cores, long memory) {
+		this(new Budget(cores, memory));
+	}
+
+	public ResourceScheduler(Budget budget) {
+		this.budget = budget;
+		this.waiting = new ArrayList<>();
+	}
+
+	/**
+	 * @return heap not used yet, measured at each admission of a budget without a given heap
+	 */
+	public static long availableMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * @param name name of the job, for errors
+	 * @param memory estimated memory of the job in bytes
+	 * @param task the job, runs with the given number of cores
+	 */
+	public void submit(String name, long memory, Task task) {
+		this.waiting.add(new Job(name, memory, task));
+	}
+
+	/**
+	 * Run all submitted jobs and wait for them, the jobs of other schedulers sharing the budget compete for it.
+	 * @throws Exception the first exception thrown by a job, the other jobs still run
+	 */
+	public void run() throws Exception {
+		this.waiting.sort(Comparator.comparingLong((Job job) -> job.memory).reversed());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.budget.cores,
+				Math.max(1, this.waiting.size())
+		));
+		try {
+			synchronized (this.budget) {
+				while (!this.waiting.isEmpty()) {
+					Job job = this.admissible();
+					if (job == null) {
+						this.budget.wait();
+						continue;
+					}
+					this.waiting.remove(job);
+					this.budget.reserved = this.budget.reserved + job.memory;
+					int slots = Math.max(1,
+							this.budget.freeCores / Math.min(this.contenders() + 1, this.budget.freeCores)
+					);
+					this.budget.freeCores = this.budget.freeCores - slots;
+					this.budget.running = this.budget.running + 1;
+					this.running = this.running + 1;
+					executor.execute(() -> this.execute(job, slots));
+				}
+				while (this.running > 0) {
+					this.budget.wait();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		if (this.failure != null) {
+			throw this.failure;
+		}
+	}
+
+	/**
+	 * @return most expensive waiting job that fits in the free cores and memory, null if none
+	 */
+	private Job admissible() {
+		if (this.budget.freeCores == 0) {
+			return null;
+		}
+		long free = this.budget.freeMemory();
+		for (Job job : this.waiting) {
+			if (job.memory <= free || this.budget.running == 0) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of waiting jobs that fit in the free memory, they share the free cores with the admitted job
+	 */
+	private int contenders() {
+		int contenders = 0;
+		long free = this.budget.freeMemory();
+		for (Job job : this.waiting) {
+			if (job.memory <= free) {
+				contenders = contenders + 1;
+			}
+		}
+		return contenders;
+	}
+
+	private void execute(Job job, int slots) {
+		Exception failure = null;
+		try {
+			job.task.run(slots);
+		} catch (Throwable e) {
+			// errors too, e.g. out of memory, the job is done either way
+			failure = new Exception("Job " + job.name + " failed", e);
+		}
+		synchronized (this.budget) {
+			if (this.failure == null) {
+				this.failure = failure;
+			}
+			this.budget.freeCores = this.budget.freeCores + slots;
+			this.budget.reserved = this.budget.reserved - job.memory;
+			this.budget.running = this.budget.running - 1;
+			this.running = this.running - 1;
+			this.budget.notifyAll();
+		}
+	}
+
+	/** Cores and heap in bytes shared by the schedulers using it, a job of any of them is only admitted within what
+	 * the running jobs of all of them left. Without a given heap, the heap is measured at each admission: the maximal
+	 * heap less the estimates of the running jobs, at most the heap not used at that time, so the heap taken by other
+	 * tasks of the process since the budget was created is accounted for.
+	 */
+	public static class Budget {
+
+		private final int cores;
+		private final long memory; // negative if measured at each admission
+		private int freeCores;
+		private long reserved; // estimated memory of the running jobs
+		private int running;
+
+		public Budget(int cores) {
+			this(cores, -1);
+		}
+
+		public Budget(int cores, long memory) {
+			this.cores = Math.max(1, cores);
+			this.memory = memory;
+			this.freeCores = this.cores;
+		}
+
+		public int getCores() {
+			return this.cores;
+		}
+
+		private long freeMemory() {
+			if (this.memory >= 0) {
+				return this.memory - this.reserved;
+			}
+			return Math.min(Runtime.getRuntime().maxMemory() - this.reserved, availableMemory());
+		}
+
+	}
+
+	public interface Task {
+
+		void run(int slots) throws Exception;
+
+	}
+
+	private static class Job {
+
+		private final String name;
+		private final long memory;
+		private final Task task;
+
+		private Job(String name, long memory, Task task) {
+			this.name = name;
+			this.memory = memory;
+			this.task = task;
+		}
+
+	}
+
+}
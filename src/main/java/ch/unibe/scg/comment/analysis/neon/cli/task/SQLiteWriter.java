@@ -0,0 +1,202 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Batched, transactional writer used by all tasks to insert rows into the database.
+ * Rows are sent with addBatch/executeBatch and committed every commitInterval rows instead of one transaction per row.
+ * With the lock of the database the rows are instead executed and committed every batch while holding the lock, so
+ * the task computes its rows without the lock, see {@link #lock(String)}.
+ * The rows and the time spent executing and committing them are added to the {@link Metrics} of the task.
+ * @connection connection obtained from {@link #connect(String)}
+ * @table name of the table written, used for reporting
+ * @sql insert statement with one parameter per column
+ * @lock lock of the database taken around each batch, null if the task holds it while it runs
+ */
+public class SQLiteWriter implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SQLiteWriter.class);
+	private static final int BATCH_SIZE = 1000;
+	private static final Map<String, Lock> LOCKS = new ConcurrentHashMap<>(); // key = absolute database path
+	private static int commitInterval = 50000;
+
+	private final Connection connection;
+	private final String table;
+	private final PreparedStatement insert;
+	private final boolean autoCommit;
+	private final long start;
+	private final Metrics metrics;
+	private final Lock lock;
+	private long rows;
+	private int batched;
+	private int uncommitted;
+
+	public SQLiteWriter(Connection connection, String table, String sql) throws SQLException {
+		this(connection, table, sql, null);
+	}
+
+	public SQLiteWriter(Connection connection, String table, String sql, Lock lock) throws SQLException {
+		this.connection = connection;
+		this.table = table;
+		this.insert = connection.prepareStatement(sql);
+		this.autoCommit = connection.getAutoCommit();
+		this.connection.setAutoCommit(false);
+		this.start = System.nanoTime();
+		this.metrics = Metrics.current();
+		this.lock = lock;
+	}
+
+	/**
+	 * Open a connection to the sqlite database with the pragmas tuned for bulk writes.
+	 * WAL journal keeps readers and the writer independent, synchronous = normal only syncs at checkpoints.
+	 * Connections of tasks running at the same time wait for each other's write locks instead of failing.
+	 * @param database database path
+	 * @return connection with foreign keys enabled
+	 * @throws SQLException
+	 */
+	public static Connection connect(String database) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("PRAGMA foreign_keys = on");
+			statement.execute("PRAGMA busy_timeout = 600000");
+			statement.execute("PRAGMA journal_mode = WAL");
+			statement.executeUpdate("PRAGMA synchronous = NORMAL");
+			statement.execute("PRAGMA mmap_size = 268435456");
+			statement.executeUpdate("PRAGMA temp_store = MEMORY");
+		}
+		return connection;
+	}
+
+	/**
+	 * Lock of the database shared by the tasks of the process. Sqlite allows a single writer, and a connection reading
+	 * while another one commits cannot write anymore. A task therefore either holds the lock from its first write
+	 * until its last commit, including the reads in between on the same connection, or reads on one connection and
+	 * writes with the lock on another one that never reads, so each of its transactions starts while the lock is held
+	 * (the writers and the {@link ch.unibe.scg.comment.analysis.neon.cli.ParseCache} created with the lock). Work
+	 * without the connection writing (e.g. NEON on rows read before) can run without the lock.
+	 * @param database database path
+	 * @return fair lock of the database
+	 */
+	public static Lock lock(String database) {
+		return LOCKS.computeIfAbsent(Paths.get(database).toAbsolutePath().normalize().toString(),
+				k -> new ReentrantLock(true)
+		);
+	}
+
+	/**
+	 * Set the number of rows committed per transaction for all writers created afterwards.
+	 * @param commitInterval rows per transaction
+	 */
+	public static void configure(int commitInterval) {
+		if (commitInterval < 1) {
+			throw new IllegalArgumentException("commit interval must be positive");
+		}
+		SQLiteWriter.commitInterval = commitInterval;
+	}
+
+	/**
+	 * Add one row, values are bound in the order of the insert parameters.
+	 * @param values column values
+	 * @throws SQLException
+	 */
+	public void insert(Object... values) throws SQLException {
+		for (int i = 0; i < values.length; i = i + 1) {
+			this.insert.setObject(i + 1, values[i]);
+		}
+		this.insert.addBatch();
+		this.metrics.add(Metrics.Counter.ROWS_OUT, 1);
+		this.rows = this.rows + 1;
+		this.batched = this.batched + 1;
+		this.uncommitted = this.uncommitted + 1;
+		if (this.batched >= BATCH_SIZE && this.lock != null) {
+			this.commit();
+		} else if (this.batched >= BATCH_SIZE) {
+			this.execute();
+		}
+		if (this.uncommitted >= commitInterval) {
+			this.commit();
+		}
+	}
+
+	public long rows() {
+		return this.rows;
+	}
+
+	/**
+	 * Execute the pending batch and commit the transaction.
+	 * @throws SQLException
+	 */
+	public void commit() throws SQLException {
+		if (this.lock != null) {
+			if (this.batched > 0) {
+				this.lock.lock();
+				try {
+					this.execute();
+					long start = System.nanoTime();
+					this.connection.commit();
+					this.metrics.add(Metrics.Counter.WRITE_NANOS, System.nanoTime() - start);
+				} catch (SQLException e) {
+					// the other tasks must not wait for the write transaction of the failed batch
+					this.connection.rollback();
+					throw e;
+				} finally {
+					this.lock.unlock();
+				}
+			}
+			this.uncommitted = 0;
+			return;
+		}
+		this.execute();
+		long start = System.nanoTime();
+		this.connection.commit();
+		this.metrics.add(Metrics.Counter.WRITE_NANOS, System.nanoTime() - start);
+		this.uncommitted = 0;
+	}
+
+	/**
+	 * Execute the pending batch without committing, so rows inserted through another writer on the same connection
+	 * can reference the rows of this one. With the lock of the database the batch is committed.
+	 * @throws SQLException
+	 */
+	public void flush() throws SQLException {
+		if (this.lock != null) {
+			this.commit();
+		} else {
+			this.execute();
+		}
+	}
+
+	private void execute() throws SQLException {
+		if (this.batched > 0) {
+			long start = System.nanoTime();
+			this.insert.executeBatch();
+			this.metrics.add(Metrics.Counter.WRITE_NANOS, System.nanoTime() - start);
+			this.batched = 0;
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try {
+			this.commit();
+		} finally {
+			this.insert.close();
+			this.connection.setAutoCommit(this.autoCommit);
+		}
+		long millis = Math.max(1, (System.nanoTime() - this.start) / 1000000);
+		LOGGER.info("{} wrote {} rows in {} ms ({} rows/sec)", this.table, this.rows, millis, this.rows * 1000 / millis);
+	}
+
+}
@@ -0,0 +1,133 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/** Maps the comment sentences of one class to the category sentences they contain.
+ * Each category sentence is normalized once per strategy and indexed in a {@link MultiPatternMatcher},
+ * each comment sentence is then scanned once per strategy instead of being compared with every category sentence.
+ * A pair is mapped with the first strategy that holds: equals, contains, contains-stripped (trailing [.!?] removed),
+ * contains-a-z-0-9 (everything but [a-z0-9] removed).
+ */
+public class SentenceMapper {
+
+	private static final Pattern TERMINATOR = Pattern.compile("[.!?]$");
+
+	/**
+	 * @param sentences key = category ("comment" for the comment itself), value = {key = sentence id, value = sentence}
+	 * @return mappings in the order of the comment sentences, categories and category sentences of the maps
+	 */
+	public List<Mapping> map(Map<String, Map<Integer, String>> sentences) {
+		List<Mapping> mappings = new ArrayList<>();
+		Map<Integer, String> comments = sentences.get("comment");
+		if (comments == null) {
+			return mappings;
+		}
+		List<Integer> ids = new ArrayList<>();
+		List<String> raw = new ArrayList<>();
+		List<String> stripped = new ArrayList<>();
+		List<String> alphanumeric = new ArrayList<>();
+		for (Map.Entry<String, Map<Integer, String>> categoryEntry : sentences.entrySet()) {
+			if (categoryEntry.getKey().equals("comment")) {
+				continue;
+			}
+			for (Map.Entry<Integer, String> categorySentenceEntry : categoryEntry.getValue().entrySet()) {
+				ids.add(categorySentenceEntry.getKey());
+				raw.add(categorySentenceEntry.getValue());
+				stripped.add(strip(categorySentenceEntry.getValue()));
+				alphanumeric.add(alphanumeric(categorySentenceEntry.getValue()));
+			}
+		}
+		if (ids.isEmpty()) {
+			return mappings;
+		}
+		MultiPatternMatcher rawMatcher = new MultiPatternMatcher(raw);
+		MultiPatternMatcher strippedMatcher = new MultiPatternMatcher(stripped);
+		MultiPatternMatcher alphanumericMatcher = new MultiPatternMatcher(alphanumeric);
+		for (Map.Entry<Integer, String> commentEntry : comments.entrySet()) {
+			int commentSentenceId = commentEntry.getKey();
+			String commentSentence = commentEntry.getValue();
+			BitSet contains = rawMatcher.matches(commentSentence);
+			BitSet containsStripped = strippedMatcher.matches(strip(commentSentence));
+			BitSet containsAlphanumeric = alphanumericMatcher.matches(alphanumeric(commentSentence));
+			BitSet any = (BitSet) contains.clone();
+			any.or(containsStripped);
+			any.or(containsAlphanumeric);
+			for (int i = any.nextSetBit(0); i >= 0; i = any.nextSetBit(i + 1)) {
+				String categorySentence = raw.get(i);
+				double similarity = 1.0 * categorySentence.length() / commentSentence.length();
+				String strategy;
+				if (contains.get(i)) {
+					// contained with the same length is equal
+					strategy = categorySentence.length() == commentSentence.length() ? "equals" : "contains";
+				} else if (containsStripped.get(i)) {
+					strategy = "contains-stripped";
+				} else {
+					strategy = "contains-a-z-0-9";
+				}
+				mappings.add(new Mapping(commentSentenceId,
+						ids.get(i),
+						strategy,
+						strategy.equals("equals") ? 1.0 : similarity
+				));
+			}
+		}
+		return mappings;
+	}
+
+	private static String strip(String sentence) {
+		return TERMINATOR.matcher(sentence).replaceAll("");
+	}
+
+	/**
+	 * @return sentence without any character outside of [a-z0-9]
+	 */
+	private static String alphanumeric(String sentence) {
+		StringBuilder builder = new StringBuilder(sentence.length());
+		for (int i = 0; i < sentence.length(); i = i + 1) {
+			char c = sentence.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	/** One row of the sentence mapping table.
+	 */
+	public static class Mapping {
+
+		private final int commentSentenceId;
+		private final int categorySentenceId;
+		private final String strategy;
+		private final double similarity;
+
+		public Mapping(int commentSentenceId, int categorySentenceId, String strategy, double similarity) {
+			this.commentSentenceId = commentSentenceId;
+			this.categorySentenceId = categorySentenceId;
+			this.strategy = strategy;
+			this.similarity = similarity;
+		}
+
+		public int getCommentSentenceId() {
+			return this.commentSentenceId;
+		}
+
+		public int getCategorySentenceId() {
+			return this.categorySentenceId;
+		}
+
+		public String getStrategy() {
+			return this.strategy;
+		}
+
+		public double getSimilarity() {
+			return this.similarity;
+		}
+
+	}
+
+}
@@ -0,0 +1,163 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import org.neon.pathsFinder.engine.Parser;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Pool of NEON parsers to split sentences and mine grammatical paths from several threads.
+ * The NEON parser is a process wide singleton that is not safe to share, so the parser of the application class loader
+ * is held by one pool of the process at a time, the other parsers are loaded from the class path in their own class
+ * loader. Each parser is used by one thread at a time. The class loaders are closed with the pool.
+ * @Note: every isolated parser loads its own copy of the NLP models, size the heap accordingly.
+ * @size number of parsers
+ */
+public class SentenceSplitterPool implements AutoCloseable {
+
+	private static final AtomicBoolean SHARED = new AtomicBoolean(); // whether a pool holds the application parser
+
+	private final BlockingQueue<Splitter> splitters;
+	private final List<URLClassLoader> loaders;
+	private final Metrics metrics; // of the task creating the pool, the pool threads may work for other tasks
+	private boolean shared; // whether this pool holds the parser of the application class loader
+
+	public SentenceSplitterPool(int size) throws ReflectiveOperationException, MalformedURLException {
+		this.splitters = new ArrayBlockingQueue<>(Math.max(1, size));
+		this.loaders = new ArrayList<>();
+		this.metrics = Metrics.current();
+		try {
+			for (int i = 0; i < Math.max(1, size); i = i + 1) {
+				if (!this.shared && SHARED.compareAndSet(false, true)) {
+					this.shared = true;
+					this.splitters.add(new Splitter(Parser.class.getClassLoader()));
+				} else {
+					URLClassLoader loader = new URLClassLoader(Utility.classPath(), ClassLoader.getPlatformClassLoader());
+					this.loaders.add(loader);
+					this.splitters.add(new Splitter(loader));
+				}
+			}
+		} catch (ReflectiveOperationException | MalformedURLException | RuntimeException e) {
+			try {
+				this.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Split the text into sentences with the next free parser.
+	 * @param text preprocessed text
+	 * @return sentences in the order of the text
+	 * @throws Exception
+	 */
+	public List<String> split(String text) throws Exception {
+		Splitter splitter = this.splitters.take();
+		long start = System.nanoTime();
+		try {
+			return splitter.split(text);
+		} finally {
+			this.metrics.add(Metrics.Counter.NEON_NANOS, System.nanoTime() - start);
+			this.splitters.put(splitter);
+		}
+	}
+
+	/**
+	 * Mine the common grammatical paths of the sentences with the next free parser.
+	 * @param text sentences separated by empty lines
+	 * @return for each path: dependencies path, sentence type, template text, number of conditions and the conditions
+	 * @throws Exception
+	 */
+	public List<String> paths(String text) throws Exception {
+		Splitter splitter = this.splitters.take();
+		long start = System.nanoTime();
+		try {
+			return splitter.paths(text);
+		} finally {
+			this.metrics.add(Metrics.Counter.NEON_NANOS, System.nanoTime() - start);
+			this.splitters.put(splitter);
+		}
+	}
+
+	/**
+	 * Close the class loaders of the parsers and hand the parser of the application class loader to the next pool.
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		this.splitters.clear();
+		if (this.shared) {
+			this.shared = false;
+			SHARED.set(false);
+		}
+		for (URLClassLoader loader : this.loaders) {
+			loader.close();
+		}
+		this.loaders.clear();
+	}
+
+	/** NEON parser of one class loader, accessed reflectively as the classes differ between loaders.
+	 */
+	private static class Splitter {
+
+		private final Object parser;
+		private final Method parse;
+		private final Method text;
+		private final Object finder;
+		private final Method discover;
+		private final Method dependencies;
+		private final Method sentenceType;
+		private final Method template;
+		private final Method conditions;
+
+		private Splitter(ClassLoader loader) throws ReflectiveOperationException {
+			Class<?> parser = Class.forName(Parser.class.getName(), true, loader);
+			this.parser = parser.getMethod("getInstance").invoke(null);
+			this.parse = parser.getMethod("parse", String.class);
+			this.text = Class.forName("org.neon.pathsFinder.model.Sentence", true, loader).getMethod("getText");
+			Class<?> finder = Class.forName("org.neon.pathsFinder.engine.PathsFinder", true, loader);
+			this.finder = finder.getMethod("getInstance").invoke(null);
+			this.discover = finder.getMethod("discoverCommonPaths", ArrayList.class);
+			Class<?> path = Class.forName("org.neon.pathsFinder.model.GrammaticalPath", true, loader);
+			this.dependencies = path.getMethod("getDependenciesPath");
+			this.sentenceType = path.getMethod("identifySentenceType");
+			this.template = path.getMethod("getTemplateText");
+			this.conditions = path.getMethod("getConditions");
+		}
+
+		private List<String> split(String text) throws ReflectiveOperationException {
+			List<String> sentences = new ArrayList<>();
+			for (Object sentence : (List<?>) this.parse.invoke(this.parser, text)) {
+				sentences.add((String) this.text.invoke(sentence));
+			}
+			return sentences;
+		}
+
+		private List<String> paths(String text) throws ReflectiveOperationException {
+			Object sentences = this.parse.invoke(this.parser, text);
+			List<String> mined = new ArrayList<>();
+			for (Object path : (List<?>) this.discover.invoke(this.finder, sentences)) {
+				List<?> conditions = (List<?>) this.conditions.invoke(path);
+				mined.add((String) this.dependencies.invoke(path));
+				mined.add((String) this.sentenceType.invoke(path));
+				mined.add((String) this.template.invoke(path));
+				mined.add(String.valueOf(conditions.size()));
+				for (Object condition : conditions) {
+					mined.add((String) condition);
+				}
+			}
+			return mined;
+		}
+
+	}
+
+}
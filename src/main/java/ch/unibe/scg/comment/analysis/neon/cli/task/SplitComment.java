@@ -0,0 +1,69 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.ParseCache;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Preprocessed texts of one class and their sentences, key = category ("comment" for the comment itself), as split by
+ * {@link T2SplitSentences} and {@link T1To3StreamSentences}. The texts split before are taken from the
+ * {@link ParseCache}, the others are split by NEON and stored in the cache once written.
+ * @clazz class of the comment
+ * @stratum stratum of the class
+ */
+class SplitComment {
+
+	final String clazz;
+	final int stratum;
+	final Map<String, String> texts;
+	final Map<String, List<String>> sentences; // null until split
+	private final Set<String> split; // categories split by NEON, the others are cached
+
+	SplitComment(String clazz, int stratum) {
+		this.clazz = clazz;
+		this.stratum = stratum;
+		this.texts = new LinkedHashMap<>();
+		this.sentences = new LinkedHashMap<>();
+		this.split = new HashSet<>();
+	}
+
+	/**
+	 * @param key category, "comment" for the comment itself
+	 * @param text preprocessed text, ignored if null
+	 * @param cache cache of the sentences split before
+	 */
+	void put(String key, String text, ParseCache cache) throws SQLException {
+		if (text != null) {
+			this.texts.put(key, text);
+			this.sentences.put(key, cache.get("split", text));
+		}
+	}
+
+	/**
+	 * Split the texts that are not cached yet.
+	 * @return this comment, with the sentences of all texts
+	 */
+	SplitComment split(SentenceSplitterPool splitters) throws Exception {
+		for (Map.Entry<String, String> text : this.texts.entrySet()) {
+			if (this.sentences.get(text.getKey()) == null) {
+				this.sentences.put(text.getKey(), splitters.split(text.getValue()));
+				this.split.add(text.getKey());
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Store the sentences split by NEON in the cache.
+	 */
+	void cache(ParseCache cache) throws SQLException {
+		for (String key : this.split) {
+			cache.put("split", this.texts.get(key), this.sentences.get(key));
+		}
+	}
+
+}
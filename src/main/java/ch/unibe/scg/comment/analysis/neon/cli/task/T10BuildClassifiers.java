@@ -15,107 +15,277 @@ import weka.core.converters.ArffLoader;
 import weka.filters.Filter;
 import weka.filters.supervised.instance.ClassBalancer;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Load training and testing dataset, build various classifiers, export results to csv
+ * The categories are scheduled by {@link ResourceScheduler}, the largest first, within the cores and the free heap.
+ * @budget cores and heap used to build the classifiers, shared with the other data sources built at the same time
+ * @classifiers classifiers built for each category [zeror|oner|naivebayes|j48|randomforest]
+ * Builds whose inputs and options did not change since the last run are skipped, see {@link ModelCache}.
  */
 public class T10BuildClassifiers {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(T10BuildClassifiers.class);
+	/* The estimates of memory(Path, Path) were measured with the retained heap of a sparse tfidf dataset of 3000
+	 * instances and 2000 attributes (527KB ARFF file), rounded up. They only decide how many categories are built at
+	 * the same time: too low risks running out of heap, too high builds fewer categories in parallel. Measure them
+	 * again if the features or the classifiers change. */
+	/** heap of the loaded dataset per byte of its ARFF file, 662KB for the 527KB file */
+	private static final double HEAP_PER_FILE_BYTE = 1.25;
+	/** heap of the 100 unpruned trees of the random forest per training instance, 17.7MB for 3000 instances */
+	private static final long FOREST_BYTES_PER_INSTANCE = 6 * 1024;
+	/** statistics of a classifier per attribute, naive bayes keeps 1MB of estimators for 2000 attributes */
+	private static final long BYTES_PER_ATTRIBUTE = 1024;
+	/** instances read to estimate the number of instances of a training file from its size */
+	private static final int SAMPLED_INSTANCES = 1000;
 	private final String data;
 	private final Path directory;
-	private final int threads;
+	private final ResourceScheduler.Budget budget;
+	private final List<String> classifiers;
 
-	public T10BuildClassifiers(String data, Path directory, int threads) {
+	public T10BuildClassifiers(String data, Path directory, ResourceScheduler.Budget budget, List<String> classifiers) {
 		super();
 		this.data = data;
 		this.directory = directory;
-		this.threads = threads;
+		this.budget = budget;
+		for (String classifier : classifiers) {
+			classifier(classifier, 1);
+		}
+		this.classifiers = classifiers;
 	}
 
-	public void run() throws IOException, InterruptedException {
-		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
-		Files.list(this.directory).filter(p -> p.getFileName().toString().endsWith(".arff") && p.getFileName()
-						.toString()
-						.startsWith("0-0-"))
-				.forEach(p -> {
-					String training = p.getFileName().toString().split("\\.")[0];
-					String test = training.replaceAll("^0-0-", "1-0-");
-					executor.submit(() -> {
-						LOGGER.info("{} build classifiers {}...", this.data, training);
-						try {
-							// training
-							ArffLoader trainingLoader = new ArffLoader();
-							trainingLoader.setFile(p.toFile());
-							Instances trainingInstances = trainingLoader.getDataSet();
-							trainingInstances.setClassIndex(trainingInstances.numAttributes() - 1);
-							// test
-							ArffLoader testLoader = new ArffLoader();
-							testLoader.setFile(this.directory.resolve(String.format("%s.arff", test)).toFile());
-							Instances testInstances = testLoader.getDataSet();
-							testInstances.setClassIndex(testInstances.numAttributes() - 1);
-							/* commented out for NLBSE
-							// zero rule
-							this.trainAndTest(
-									new ZeroR(),
-									training,
-									"zeror",
-									new Instances(trainingInstances),
-									new Instances(testInstances),
-									false
-							);
-							// one rule
-							this.trainAndTest(
-									new OneR(),
-									training,
-									"oner",
-									new Instances(trainingInstances),
-									new Instances(testInstances),
-									false
-							);
-							// naive bayes
-							this.trainAndTest(
-									new NaiveBayes(),
-									training,
-									"naivebayes",
-									new Instances(trainingInstances),
-									new Instances(testInstances),
-									false
-							);
-							// j48
-							this.trainAndTest(
-									new J48(),
-									training,
-									"j48",
-									new Instances(trainingInstances),
-									new Instances(testInstances),
-									false
-							);
-
-							 */
-							// random forest
-							this.trainAndTest(
-									new RandomForest(),
-									training,
-									"randomforest",
-									new Instances(trainingInstances),
-									new Instances(testInstances),
-									false
-							);
-							LOGGER.info("{} build classifiers {} done", this.data, training);
-						} catch (Throwable e) {
-							LOGGER.warn("{} build classifiers {} failed", this.data, training, e);
+	public void run() throws Exception {
+		ResourceScheduler scheduler = new ResourceScheduler(this.budget);
+		ModelCache cache = new ModelCache(this.directory.resolve("classifiers.manifest"));
+		List<Path> trainingFiles;
+		try (Stream<Path> files = Files.list(this.directory)) {
+			trainingFiles = files.filter(p -> p.getFileName().toString().endsWith(".arff") && p.getFileName()
+					.toString()
+					.startsWith("0-0-")).collect(Collectors.toList());
+		}
+		for (Path p : trainingFiles) {
+			String training = p.getFileName().toString().split("\\.")[0];
+			String test = training.replaceAll("^0-0-", "1-0-");
+			Path testFile = this.directory.resolve(String.format("%s.arff", test));
+			scheduler.submit(training, this.memory(p, testFile), slots -> {
+				LOGGER.info("{} build classifiers {} on {} cores...", this.data, training, slots);
+				// key = classifier, value = key of the build, only the classifiers not built from these inputs yet
+				Map<String, String> builds = this.builds(cache, training, p, testFile);
+				if (builds.isEmpty()) {
+					LOGGER.info("{} build classifiers {} up to date", this.data, training);
+					return;
+				}
+				// training
+				ArffLoader trainingLoader = new ArffLoader();
+				trainingLoader.setFile(p.toFile());
+				Instances trainingInstances = trainingLoader.getDataSet();
+				trainingInstances.setClassIndex(trainingInstances.numAttributes() - 1);
+				// test
+				ArffLoader testLoader = new ArffLoader();
+				testLoader.setFile(testFile.toFile());
+				Instances testInstances = testLoader.getDataSet();
+				testInstances.setClassIndex(testInstances.numAttributes() - 1);
+				// the classifiers copy the training data they keep, so both datasets are shared read-only
+				this.trainAndTest(cache, training, trainingInstances, testInstances, slots, builds);
+				LOGGER.info("{} build classifiers {} done", this.data, training);
+			});
+		}
+		// waits for all jobs, however long they take, then fails with the first failed category
+		scheduler.run();
+	}
+
+	/**
+	 * @param prefix 0-0-categoryName
+	 * @return key = classifier, value = key of the build, the classifiers of the run whose outputs are not current
+	 * @throws IOException
+	 */
+	private Map<String, String> builds(ModelCache cache, String prefix, Path training, Path test) throws IOException {
+		String inputs = ModelCache.hash(training, test);
+		Map<String, String> builds = new LinkedHashMap<>();
+		for (String name : this.classifiers) {
+			// the execution slots do not change the model
+			String key = ModelCache.key(inputs, classifier(name, 1), "balance=false");
+			if (!cache.isCurrent(prefix + "-" + name, key, this.classifierFile(prefix, name), this.outputsFile(prefix, name))) {
+				builds.put(name, key);
+			}
+		}
+		return builds;
+	}
+
+	/**
+	 * Build and test the classifiers on the datasets of a category on the given cores. The single threaded classifiers
+	 * are built in parallel, one per core, then the random forest is built alone on all cores, so the threads of the
+	 * category never exceed its cores.
+	 * @param prefix 0-0-categoryName
+	 * @param trainingInstances training data, shared by the classifiers
+	 * @param testInstances testing data, shared by the classifiers
+	 * @param slots cores of the category, also the execution slots of the random forest
+	 * @param builds key = classifier, value = key of the build recorded once it is done
+	 * @throws Exception
+	 */
+	private void trainAndTest(
+			ModelCache cache,
+			String prefix,
+			Instances trainingInstances,
+			Instances testInstances,
+			int slots,
+			Map<String, String> builds
+	) throws Exception {
+		Map<String, String> singleThreaded = new LinkedHashMap<>(builds);
+		singleThreaded.remove("randomforest");
+		if (!singleThreaded.isEmpty()) {
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(slots, singleThreaded.size()));
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (Map.Entry<String, String> build : singleThreaded.entrySet()) {
+					futures.add(executor.submit(() -> {
+						this.trainAndTest(cache, prefix, build, trainingInstances, testInstances, 1);
+						return null;
+					}));
+				}
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) {
+							throw (Exception) e.getCause();
 						}
-					});
-				});
-		executor.shutdown();
-		executor.awaitTermination(2, TimeUnit.HOURS);
+						throw e;
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		for (Map.Entry<String, String> build : builds.entrySet()) {
+			if (!singleThreaded.containsKey(build.getKey())) {
+				this.trainAndTest(cache, prefix, build, trainingInstances, testInstances, slots);
+			}
+		}
+	}
+
+	/**
+	 * @param build key = classifier, value = key of the build recorded once it is done
+	 * @param slots execution slots of the classifier
+	 */
+	private void trainAndTest(
+			ModelCache cache,
+			String prefix,
+			Map.Entry<String, String> build,
+			Instances trainingInstances,
+			Instances testInstances,
+			int slots
+	) throws Exception {
+		Classifier classifier = classifier(build.getKey(), slots);
+		this.trainAndTest(classifier, prefix, build.getKey(), trainingInstances, testInstances, false);
+		cache.record(prefix + "-" + build.getKey(), build.getValue());
+	}
+
+	private Path classifierFile(String prefix, String postfix) {
+		return this.directory.resolve(String.format("%s-%s.classifier", prefix, postfix));
+	}
+
+	private Path outputsFile(String prefix, String postfix) {
+		return this.directory.resolve(String.format("%s-%s-outputs.csv", prefix, postfix));
+	}
+
+	/**
+	 * @param name name of the classifier, also the postfix of its files
+	 * @param slots cores available to the classifier
+	 * @return new classifier with the default options
+	 */
+	private static Classifier classifier(String name, int slots) {
+		switch (name) {
+			case "zeror":
+				return new ZeroR();
+			case "oner":
+				return new OneR();
+			case "naivebayes":
+				return new NaiveBayes();
+			case "j48":
+				return new J48();
+			case "randomforest":
+				// builds its trees on the cores given to the category
+				RandomForest randomForest = new RandomForest();
+				randomForest.setNumExecutionSlots(slots);
+				return randomForest;
+			default:
+				throw new IllegalArgumentException("classifier is unknown");
+		}
+	}
+
+	/**
+	 * Estimate the heap used to build the classifiers of a category, from the size and header of its ARFF files:
+	 * <ul>
+	 * <li>the loaded training and test data, a sparse value takes about as many bytes in the heap (8 byte double and
+	 * 4 byte index) as in the ARFF text (index, space, digits and comma), {@link #HEAP_PER_FILE_BYTE} per byte</li>
+	 * <li>a copy of the training data for each classifier built at the same time, J48 copies it and the random forest
+	 * draws a bootstrap sample for each tree built at the same time, so one per execution slot. The random forest is
+	 * built alone, after the others, see {@link #trainAndTest(ModelCache, String, Instances, Instances, int, Map)}</li>
+	 * <li>the trees kept by the random forest, unpruned they have about one leaf per instance,
+	 * {@link #FOREST_BYTES_PER_INSTANCE} per instance</li>
+	 * <li>the statistics of each classifier built at the same time, {@link #BYTES_PER_ATTRIBUTE} per attribute</li>
+	 * </ul>
+	 * The execution slots are only known once the category is scheduled, the estimate assumes all cores of the budget.
+	 * Only the header and the first {@link #SAMPLED_INSTANCES} instances of the training file are read, the number of
+	 * instances is extrapolated from the size of the file.
+	 * @return estimated memory in bytes
+	 * @throws IOException
+	 */
+	private long memory(Path training, Path test) throws IOException {
+		long size = Files.size(training);
+		int attributes = 0;
+		long header = 0; // bytes up to the data
+		long sampled = 0; // bytes of the sampled instances
+		long instances = 0;
+		// platform charset, as written by T7, the ARFF of T7 is ASCII so a character is a byte
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(training)))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				header = header + line.length() + 1;
+				if (line.regionMatches(true, 0, "@attribute", 0, "@attribute".length())) {
+					attributes = attributes + 1;
+				} else if (line.regionMatches(true, 0, "@data", 0, "@data".length())) {
+					break;
+				}
+			}
+			while (instances < SAMPLED_INSTANCES && (line = reader.readLine()) != null) {
+				sampled = sampled + line.length() + 1;
+				if (!line.isBlank() && !line.startsWith("%")) {
+					instances = instances + 1;
+				}
+			}
+			// the file has more instances than sampled, the rest of the data has the same bytes per instance
+			if (line != null && sampled > 0) {
+				instances = Math.round((double) instances * Math.max(sampled, size - header) / sampled);
+			}
+		}
+		int concurrent = this.classifiers.size();
+		long trees = 0;
+		if (this.classifiers.contains("randomforest")) {
+			concurrent = Math.max(1, concurrent - 1);
+			trees = FOREST_BYTES_PER_INSTANCE * instances;
+		}
+		concurrent = Math.min(this.budget.getCores(), concurrent);
+		int copies = trees > 0 ? Math.max(concurrent, this.budget.getCores()) : concurrent;
+		long data = (long) (HEAP_PER_FILE_BYTE * size);
+		return (long) (HEAP_PER_FILE_BYTE * (size + Files.size(test))) + copies * data + trees
+				+ concurrent * BYTES_PER_ATTRIBUTE * attributes;
 	}
 
 	/**
@@ -137,9 +307,7 @@ public class T10BuildClassifiers {
 			boolean balance
 	) throws Exception {
 		classifier.buildClassifier(balance ? this.balance(trainingInstances) : trainingInstances);
-		SerializationHelper.write(this.directory.resolve(String.format("%s-%s.classifier", prefix, postfix))
-				.toAbsolutePath()
-				.toString(), classifier);
+		SerializationHelper.write(this.classifierFile(prefix, postfix).toAbsolutePath().toString(), classifier);
 		String output = "type,tp,fp,tn,fn,w_pr,w_re,w_f_measure\n";
 		Evaluation evaluation = new Evaluation(trainingInstances);
 		evaluation.evaluateModel(classifier, trainingInstances);
@@ -167,7 +335,7 @@ public class T10BuildClassifiers {
 				evaluation.weightedRecall(),
 				evaluation.weightedFMeasure()
 		);
-		Files.writeString(this.directory.resolve(String.format("%s-%s-outputs.csv", prefix, postfix)), output);
+		Files.writeString(this.outputsFile(prefix, postfix), output);
 	}
 
 	private Instances balance(Instances instances) throws Exception {
@@ -1,5 +1,6 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -8,10 +9,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /**
@@ -33,16 +33,23 @@ public class T11ImportClassifierOutputs {
 	}
 
 	public void run() throws IOException, SQLException {
+		// the outputs are written with the database lock, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/11_classifier_outputs.sql")
-					.replaceAll("\\{\\{data}}", this.data));
+			lock.lock();
+			try {
+				statement.executeUpdate(Utility.resource("sql/11_classifier_outputs.sql")
+						.replaceAll("\\{\\{data}}", this.data));
+			} finally {
+				lock.unlock();
+			}
 			try (
-					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-							+ "_11_classifier_outputs (category,classifier,features_tfidf,features_heuristic,type,tp,fp,tn,fn,w_pr,w_re,w_f_measure) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?,?,?,?)")
+					SQLiteWriter insert = new SQLiteWriter(connection, this.data + "_11_classifier_outputs", "INSERT INTO " + this.data
+							+ "_11_classifier_outputs (category,classifier,features_tfidf,features_heuristic,type,tp,fp,tn,fn,w_pr,w_re,w_f_measure) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?,?,?,?)",
+							lock)
 			) {
 				for (String prefix : Files.list(this.directory)
 						.filter(p -> p.getFileName().toString().endsWith("-outputs.csv"))
@@ -60,31 +67,27 @@ public class T11ImportClassifierOutputs {
 									))))
 					) {
 						for (CSVRecord record : parser) {
-							insert.setString(1, category);
-							insert.setString(2, classifier);
-							insert.setInt(3, tfidf ? 1 : 0);
-							insert.setInt(4, heuristic ? 1 : 0);
-							insert.setString(5, record.get("type"));
-							insert.setInt(6, (int) Double.parseDouble(record.get("tp")));
-							insert.setInt(7, (int) Double.parseDouble(record.get("fp")));
-							insert.setInt(8, (int) Double.parseDouble(record.get("tn")));
-							insert.setInt(9, (int) Double.parseDouble(record.get("fn")));
-							insert.setDouble(10,
+							Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
+							insert.insert(
+									category,
+									classifier,
+									tfidf ? 1 : 0,
+									heuristic ? 1 : 0,
+									record.get("type"),
+									(int) Double.parseDouble(record.get("tp")),
+									(int) Double.parseDouble(record.get("fp")),
+									(int) Double.parseDouble(record.get("tn")),
+									(int) Double.parseDouble(record.get("fn")),
 									record.get("w_pr") == null
 											? null
-											: Double.parseDouble(record.get("w_pr"))
-							);
-							insert.setDouble(11,
+											: Double.parseDouble(record.get("w_pr")),
 									record.get("w_re") == null
 											? null
-											: Double.parseDouble(record.get("w_re"))
-							);
-							insert.setDouble(12,
+											: Double.parseDouble(record.get("w_re")),
 									record.get("w_f_measure") == null
 											? null
 											: Double.parseDouble(record.get("w_f_measure"))
 							);
-							insert.executeUpdate();
 						}
 					}
 				}
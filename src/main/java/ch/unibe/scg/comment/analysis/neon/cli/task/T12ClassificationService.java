@@ -0,0 +1,321 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Long-running HTTP service classifying comments with the classifiers of 10-build-classifiers, see
+ * {@link CommentClassifier}. The extractors, classifiers and NEON parsers are loaded once at start.
+ * POST /classify with a raw comment as UTF-8 body answers a CSV with one row per sentence: the sentence and the
+ * probability of each category. GET /stats answers the number of requests and the p50 and p99 latencies.
+ * Concurrent requests are classified in micro-batches: once a worker is free, the waiting requests (up to
+ * {@link #BATCH_SIZE}, or those arriving within {@link #LINGER} ms of the first one) are featurized and classified at
+ * once. At most {@link #QUEUE_SIZE} requests wait for a worker, the next ones are answered 503 until the queue drains.
+ * A comment larger than {@link #MAX_BODY} bytes is answered 413 without reading the rest of it. When the task is
+ * interrupted, the requests not given to a worker yet are answered 503 before the service stops.
+ * The handlers only read and queue the requests, the workers answer them, and a handler backlog larger than the queue
+ * is handled by the thread accepting the connections, so neither the threads nor the queues grow with the load.
+ * The latency of a request is measured from its arrival to its response, over the last {@link #LATENCIES} requests,
+ * and logged every {@link #REPORT} requests.
+ * @threads number of batches classified at the same time, also the number of NEON parsers
+ * @port port of the service
+ * @classifier name of the classifiers, e.g. randomforest
+ */
+public class T12ClassificationService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(T12ClassificationService.class);
+	private static final int BATCH_SIZE = 64;
+	private static final long LINGER = 5;
+	private static final int QUEUE_SIZE = 1024;
+	private static final int MAX_BODY = 1024 * 1024; // bytes of a comment
+	private static final int LATENCIES = 10000;
+	private static final int REPORT = 1000;
+
+	private final String database;
+	private final String data;
+	private final Path directory;
+	private final int threads;
+	private final int port;
+	private final String classifier;
+
+	public T12ClassificationService(String database, String data, Path directory, int threads, int port, String classifier) {
+		super();
+		this.database = database;
+		this.data = data;
+		this.directory = directory;
+		this.threads = threads;
+		this.port = port;
+		this.classifier = classifier;
+	}
+
+	public void run() throws Exception {
+		BlockingQueue<Request> requests = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		Latencies latencies = new Latencies(LATENCIES);
+		ExecutorService handlers = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(QUEUE_SIZE),
+				new ThreadPoolExecutor.CallerRunsPolicy()
+		);
+		ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+		Semaphore free = new Semaphore(this.threads);
+		try (
+				CommentClassifier classifier = this.classifier();
+				SentenceSplitterPool splitters = new SentenceSplitterPool(this.threads)
+		) {
+			HttpServer server = HttpServer.create(new InetSocketAddress(this.port), 0);
+			server.createContext("/classify", exchange -> this.classify(exchange, requests));
+			server.createContext("/stats", exchange -> this.stats(exchange, latencies));
+			server.setExecutor(handlers);
+			server.start();
+			LOGGER.info("{} classification service of {} on port {}", this.data, classifier.getCategories(), this.port);
+			List<Request> waiting = new ArrayList<>(); // taken from the queue, not given to a worker yet
+			try {
+				// runs until the task is interrupted
+				while (true) {
+					// the requests queue up while all workers are busy, so the batches grow with the load
+					free.acquire();
+					waiting.add(requests.take());
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER);
+					while (waiting.size() < BATCH_SIZE) {
+						Request request = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+						if (request == null) {
+							break;
+						}
+						waiting.add(request);
+					}
+					List<Request> batch = new ArrayList<>(waiting);
+					waiting.clear();
+					workers.submit(() -> {
+						try {
+							this.classify(classifier, splitters, batch, latencies);
+						} finally {
+							free.release();
+						}
+					});
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				// answered while the server still runs, the handlers answer a rejected request 503 on this thread, whose
+				// interrupt would close the connections
+				boolean interrupted = Thread.interrupted();
+				requests.drainTo(waiting);
+				for (Request request : waiting) {
+					request.response.completeExceptionally(new RejectedExecutionException("service stopped"));
+				}
+				server.stop(0);
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+			handlers.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the classifier, the database is only read at start
+	 * @throws Exception
+	 */
+	private CommentClassifier classifier() throws Exception {
+		try (Connection connection = SQLiteWriter.connect(this.database)) {
+			return CommentClassifier.load(connection, this.data, this.directory, this.classifier);
+		}
+	}
+
+	/**
+	 * Split the comments of the batch, classify all their sentences at once and answer each request.
+	 */
+	private void classify(
+			CommentClassifier classifier, SentenceSplitterPool splitters, List<Request> batch, Latencies latencies
+	) {
+		try {
+			List<String> sentences = new ArrayList<>();
+			List<Integer> ends = new ArrayList<>(); // end of the sentences of each request
+			for (Request request : batch) {
+				sentences.addAll(CommentClassifier.split(splitters, request.comment));
+				ends.add(sentences.size());
+			}
+			double[][] probabilities = classifier.classify(sentences);
+			int start = 0;
+			for (int i = 0; i < batch.size(); i = i + 1) {
+				StringBuilder csv = new StringBuilder();
+				try (CSVPrinter printer = new CSVPrinter(csv, CSVFormat.DEFAULT)) {
+					List<Object> header = new ArrayList<>();
+					header.add("sentence");
+					header.addAll(classifier.getCategories());
+					printer.printRecord(header);
+					for (int j = start; j < ends.get(i); j = j + 1) {
+						List<Object> row = new ArrayList<>();
+						row.add(sentences.get(j));
+						for (double probability : probabilities[j]) {
+							row.add(probability);
+						}
+						printer.printRecord(row);
+					}
+				}
+				start = ends.get(i);
+				batch.get(i).response.complete(csv.toString());
+			}
+		} catch (Throwable e) {
+			LOGGER.warn("{} classification of {} requests failed", this.data, batch.size(), e);
+			for (Request request : batch) {
+				request.response.completeExceptionally(e);
+			}
+		}
+		for (Request request : batch) {
+			long count = latencies.add(System.nanoTime() - request.start);
+			if (count % REPORT == 0) {
+				double[] percentiles = latencies.percentiles(50, 99);
+				LOGGER.info("{} classified {} requests, p50 {} ms, p99 {} ms", this.data, count, percentiles[0],
+						percentiles[1]);
+			}
+		}
+	}
+
+	/**
+	 * Queue the request, the worker classifying it answers once done.
+	 */
+	private void classify(HttpExchange exchange, BlockingQueue<Request> requests) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			try (exchange) {
+				this.respond(exchange, 405, "text/plain", "POST a comment\n");
+			}
+			return;
+		}
+		byte[] bytes;
+		try (InputStream body = exchange.getRequestBody()) {
+			bytes = body.readNBytes(MAX_BODY + 1);
+		}
+		if (bytes.length > MAX_BODY) {
+			try (exchange) {
+				this.respond(exchange, 413, "text/plain", "comment larger than " + MAX_BODY + " bytes\n");
+			}
+			return;
+		}
+		Request request = new Request(new String(bytes, StandardCharsets.UTF_8));
+		if (!requests.offer(request)) {
+			try (exchange) {
+				this.respond(exchange, 503, "text/plain", "too many requests waiting\n");
+			}
+			return;
+		}
+		request.response.whenComplete((csv, failure) -> {
+			try (exchange) {
+				if (failure == null) {
+					this.respond(exchange, 200, "text/csv", csv);
+				} else if (failure instanceof RejectedExecutionException) {
+					this.respond(exchange, 503, "text/plain", failure.getMessage() + "\n");
+				} else {
+					this.respond(exchange, 500, "text/plain", failure + "\n");
+				}
+			} catch (IOException e) {
+				LOGGER.warn("{} response not sent", this.data, e);
+			}
+		});
+	}
+
+	private void stats(HttpExchange exchange, Latencies latencies) throws IOException {
+		try (exchange) {
+			double[] percentiles = latencies.percentiles(50, 99);
+			this.respond(exchange, 200, "text/plain", String.format("requests %d%np50 %.3f ms%np99 %.3f ms%n",
+					latencies.count(),
+					percentiles[0],
+					percentiles[1]
+			));
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	/** A comment to classify, answered by the worker of its batch.
+	 */
+	private static class Request {
+
+		private final String comment;
+		private final long start;
+		private final CompletableFuture<String> response;
+
+		private Request(String comment) {
+			this.comment = comment;
+			this.start = System.nanoTime();
+			this.response = new CompletableFuture<>();
+		}
+
+	}
+
+	/** Latencies of the last requests, in a ring buffer.
+	 */
+	private static class Latencies {
+
+		private final long[] latencies; // nanoseconds
+		private long count;
+
+		private Latencies(int size) {
+			this.latencies = new long[size];
+		}
+
+		/**
+		 * @return number of requests so far
+		 */
+		private synchronized long add(long latency) {
+			this.latencies[(int) (this.count % this.latencies.length)] = latency;
+			this.count = this.count + 1;
+			return this.count;
+		}
+
+		private synchronized long count() {
+			return this.count;
+		}
+
+		/**
+		 * @param percentiles percentiles to compute, between 0 and 100
+		 * @return latencies of the percentiles in milliseconds, nearest rank over the last requests
+		 */
+		private synchronized double[] percentiles(double... percentiles) {
+			int n = (int) Math.min(this.count, this.latencies.length);
+			long[] sorted = Arrays.copyOf(this.latencies, n);
+			Arrays.sort(sorted);
+			double[] latencies = new double[percentiles.length];
+			for (int i = 0; i < percentiles.length; i = i + 1) {
+				if (n > 0) {
+					int rank = (int) Math.ceil(percentiles[i] / 100 * n);
+					latencies[i] = sorted[Math.max(0, rank - 1)] / 1e6;
+				}
+			}
+			return latencies;
+		}
+
+	}
+
+}
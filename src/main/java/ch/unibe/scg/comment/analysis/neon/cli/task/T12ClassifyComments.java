@@ -0,0 +1,364 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
+
+/** Classify the comments of a file with the classifiers of 10-build-classifiers, see {@link CommentClassifier}.
+ * The file is a CSV with the columns class and comment, or JSON lines (.jsonl) of objects with the keys class and
+ * comment. It is read as a stream, chunks of comments are split, featurized and classified on the workers of an
+ * {@link OrderedExecutor} and written in the order of the file, its window bounds the comments held in memory. The
+ * workers reuse the filters the classifier prepared, the dictionary and heuristics are not read again per chunk.
+ * A JSON line holds one object and nothing else.
+ * The sentences are stored once in {{data}}_12_sentence and the probability of each of their categories in
+ * {{data}}_12_classification, keyed by comment and sentence, replacing the previous run. The comments are classified
+ * without the database lock, it is taken around every batch written, see {@link SQLiteWriter#lock(String)}.
+ * @datbase database with the raw comments and the extractors, receives the classification
+ * @data language under analysis
+ * @directory directory of the experiment, with the training datasets and the classifiers
+ * @input comments to classify
+ * @threads number of chunks classified in parallel, each with its own NEON parser
+ * @classifier name of the classifiers, e.g. randomforest
+ */
+public class T12ClassifyComments {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(T12ClassifyComments.class);
+	private static final int CHUNK_SIZE = 256;
+
+	private final String database;
+	private final String data;
+	private final Path directory;
+	private final Path input;
+	private final int threads;
+	private final String classifier;
+
+	public T12ClassifyComments(String database, String data, Path directory, Path input, int threads, String classifier) {
+		super();
+		this.database = database;
+		this.data = data;
+		this.directory = directory;
+		this.input = input;
+		this.threads = threads;
+		this.classifier = classifier;
+	}
+
+	public void run() throws Exception {
+		Lock lock = SQLiteWriter.lock(this.database);
+		try (
+				Connection connection = SQLiteWriter.connect(this.database);
+				Statement statement = connection.createStatement()
+		) {
+			lock.lock();
+			try {
+				statement.executeUpdate("DROP TABLE IF EXISTS " + this.data + "_12_classification");
+				statement.executeUpdate("DROP TABLE IF EXISTS " + this.data + "_12_sentence");
+				statement.executeUpdate(Utility.resource("sql/12_sentence.sql").replaceAll("\\{\\{data}}", this.data));
+				statement.executeUpdate(Utility.resource("sql/12_classification.sql")
+						.replaceAll("\\{\\{data}}", this.data));
+			} finally {
+				lock.unlock();
+			}
+			try (
+					CommentClassifier classifier = CommentClassifier.load(connection, this.data, this.directory, this.classifier);
+					Comments comments = new Comments(this.input);
+					SentenceSplitterPool splitters = new SentenceSplitterPool(this.threads);
+					SQLiteWriter sentence = new SQLiteWriter(connection, this.data + "_12_sentence", "INSERT INTO "
+							+ this.data + "_12_sentence (comment_id, sentence_id, class, sentence) VALUES (?, ?, ?, ?)",
+							lock);
+					SQLiteWriter insert = new SQLiteWriter(connection, this.data + "_12_classification", "INSERT INTO "
+							+ this.data + "_12_classification (comment_id, sentence_id, category, probability) "
+							+ "VALUES (?, ?, ?, ?)", lock);
+					OrderedExecutor<List<Comment>> executor = new OrderedExecutor<>(this.threads, chunk -> {
+						List<String> categories = classifier.getCategories();
+						for (Comment comment : chunk) {
+							for (int i = 0; i < comment.sentences.size(); i = i + 1) {
+								sentence.insert(comment.id, i, comment.clazz, comment.sentences.get(i));
+							}
+						}
+						// the probabilities reference the sentences of the chunk
+						sentence.flush();
+						for (Comment comment : chunk) {
+							for (int i = 0; i < comment.sentences.size(); i = i + 1) {
+								for (int c = 0; c < categories.size(); c = c + 1) {
+									insert.insert(comment.id, i, categories.get(c), comment.probabilities[i][c]);
+								}
+							}
+						}
+					})
+			) {
+				List<Comment> chunk = new ArrayList<>();
+				while (comments.hasNext()) {
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
+					chunk.add(comments.next());
+					if (chunk.size() == CHUNK_SIZE || !comments.hasNext()) {
+						List<Comment> submitted = chunk;
+						executor.submit(() -> this.classify(classifier, splitters, submitted));
+						chunk = new ArrayList<>();
+					}
+				}
+				executor.finish();
+				LOGGER.info("{} classified {} comments of {}", this.data, comments.comments, this.input);
+			}
+		}
+	}
+
+	/**
+	 * Split the comments and classify all their sentences at once.
+	 * @return the comments with their sentences and probabilities
+	 */
+	private List<Comment> classify(CommentClassifier classifier, SentenceSplitterPool splitters, List<Comment> chunk)
+			throws Exception {
+		List<String> sentences = new ArrayList<>();
+		for (Comment comment : chunk) {
+			comment.sentences = CommentClassifier.split(splitters, comment.comment);
+			sentences.addAll(comment.sentences);
+		}
+		double[][] probabilities = classifier.classify(sentences);
+		int start = 0;
+		for (Comment comment : chunk) {
+			comment.probabilities = new double[comment.sentences.size()][];
+			System.arraycopy(probabilities, start, comment.probabilities, 0, comment.sentences.size());
+			start = start + comment.sentences.size();
+		}
+		return chunk;
+	}
+
+	/** A comment of the file and, once classified, its sentences and their probabilities.
+	 */
+	private static class Comment {
+
+		private final long id; // line or record of the file, from 1
+		private final String clazz;
+		private final String comment;
+		private List<String> sentences;
+		private double[][] probabilities; // per sentence, the probability of each category
+
+		private Comment(long id, String clazz, String comment) {
+			this.id = id;
+			this.clazz = clazz;
+			this.comment = comment;
+		}
+
+	}
+
+	/** Reads the comments of a CSV or JSON lines file one at a time.
+	 */
+	static class Comments implements Iterator<Comment>, AutoCloseable {
+
+		private static final Pattern PRIMITIVE = Pattern.compile(
+				"true|false|null|-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+		private final Reader reader;
+		private final Iterator<CSVRecord> records; // null for JSON lines
+		private final BufferedReader lines;
+		private Comment next;
+		private long count; // records or lines read
+		private long comments;
+
+		private Comments(Path input) throws IOException {
+			if (input.getFileName().toString().endsWith(".jsonl")) {
+				this.lines = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+				this.reader = this.lines;
+				this.records = null;
+			} else {
+				this.reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+				CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(this.reader);
+				if (!parser.getHeaderMap().containsKey("class") || !parser.getHeaderMap().containsKey("comment")) {
+					throw new IllegalArgumentException("input has no class or comment column");
+				}
+				this.records = parser.iterator();
+				this.lines = null;
+			}
+			this.next = this.read();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		@Override
+		public Comment next() {
+			Comment comment = this.next;
+			this.comments = this.comments + 1;
+			try {
+				this.next = this.read();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return comment;
+		}
+
+		private Comment read() throws IOException {
+			if (this.records != null) {
+				if (!this.records.hasNext()) {
+					return null;
+				}
+				CSVRecord record = this.records.next();
+				this.count = this.count + 1;
+				return new Comment(this.count, record.get("class"), record.get("comment"));
+			}
+			for (String line = this.lines.readLine(); line != null; line = this.lines.readLine()) {
+				this.count = this.count + 1;
+				if (!line.isBlank()) {
+					Map<String, String> object;
+					try {
+						object = json(line);
+					} catch (RuntimeException e) {
+						throw new IllegalArgumentException("input line " + this.count + " is no JSON object of primitives", e);
+					}
+					if (object.get("class") == null || object.get("comment") == null) {
+						throw new IllegalArgumentException("input line " + this.count + " has no class or comment");
+					}
+					return new Comment(this.count, object.get("class"), object.get("comment"));
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.reader.close();
+		}
+
+		/**
+		 * @param line JSON object of strings, numbers, booleans or nulls
+		 * @return key = key of the object, value = its value as string, null for null
+		 * @throws IllegalArgumentException if the line is no such object or anything but whitespace follows it
+		 */
+		static Map<String, String> json(String line) {
+			Map<String, String> object = new HashMap<>();
+			int[] i = {0};
+			expect(line, i, '{');
+			if (at(line, skip(line, i[0])) == '}') {
+				expect(line, i, '}');
+				end(line, i);
+				return object;
+			}
+			do {
+				String key = string(line, i);
+				expect(line, i, ':');
+				i[0] = skip(line, i[0]);
+				if (at(line, i[0]) == '"') {
+					object.put(key, string(line, i));
+				} else {
+					int start = i[0];
+					while (i[0] < line.length() && ",} \t".indexOf(line.charAt(i[0])) < 0) {
+						i[0] = i[0] + 1;
+					}
+					String value = line.substring(start, i[0]);
+					if (!PRIMITIVE.matcher(value).matches()) {
+						throw new IllegalArgumentException("no number, boolean or null at " + start);
+					}
+					object.put(key, "null".equals(value) ? null : value);
+				}
+				i[0] = skip(line, i[0]);
+			} while (at(line, i[0]++) == ',');
+			if (line.charAt(i[0] - 1) != '}') {
+				throw new IllegalArgumentException(", or } expected at " + (i[0] - 1));
+			}
+			end(line, i);
+			return object;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if anything but whitespace follows the object
+		 */
+		private static void end(String line, int[] i) {
+			if (skip(line, i[0]) < line.length()) {
+				throw new IllegalArgumentException("content after the object at " + skip(line, i[0]));
+			}
+		}
+
+		private static String string(String line, int[] i) {
+			expect(line, i, '"');
+			StringBuilder string = new StringBuilder();
+			for (char c = at(line, i[0]++); c != '"'; c = at(line, i[0]++)) {
+				if (c == '\\') {
+					c = at(line, i[0]++);
+					switch (c) {
+						case '"':
+						case '\\':
+						case '/':
+							break;
+						case 'b':
+							c = '\b';
+							break;
+						case 'f':
+							c = '\f';
+							break;
+						case 'n':
+							c = '\n';
+							break;
+						case 'r':
+							c = '\r';
+							break;
+						case 't':
+							c = '\t';
+							break;
+						case 'u':
+							c = 0;
+							for (int end = i[0] + 4; i[0] < end; i[0] = i[0] + 1) {
+								int digit = Character.digit(at(line, i[0]), 16);
+								if (digit < 0) {
+									throw new IllegalArgumentException("hex digit expected at " + i[0]);
+								}
+								c = (char) (c * 16 + digit);
+							}
+							break;
+						default:
+							throw new IllegalArgumentException("invalid escape at " + (i[0] - 1));
+					}
+				}
+				string.append(c);
+			}
+			return string.toString();
+		}
+
+		private static void expect(String line, int[] i, char c) {
+			i[0] = skip(line, i[0]);
+			if (i[0] >= line.length() || line.charAt(i[0]) != c) {
+				throw new IllegalArgumentException(c + " expected at " + i[0]);
+			}
+			i[0] = i[0] + 1;
+		}
+
+		/**
+		 * @throws IllegalArgumentException at the end of the line, the object is not closed
+		 */
+		private static char at(String line, int i) {
+			if (i >= line.length()) {
+				throw new IllegalArgumentException("object is not closed");
+			}
+			return line.charAt(i);
+		}
+
+		private static int skip(String line, int i) {
+			while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+				i = i + 1;
+			}
+			return i;
+		}
+
+	}
+
+}
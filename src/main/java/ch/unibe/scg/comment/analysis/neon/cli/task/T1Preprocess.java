@@ -1,73 +1,108 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
 import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /** Preprocess the comments using @Link{InstanceBuilder}
- *
+ * @incremental only preprocess the classes added or changed in _0_raw since the last run, see {@link ClassDelta}
  */
 public class T1Preprocess {
 
 	private final String database;
 	private final String data;
+	private final boolean incremental;
 
-	public T1Preprocess(String database, String data) {
+	public T1Preprocess(String database, String data, boolean incremental) {
 		this.database = database;
 		this.data = data;
+		this.incremental = incremental;
 	}
 
-	public void run() throws SQLException {
+	public void run() throws IOException, SQLException {
+		// the rows are read on the connection and written with the database lock on writes, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
+				Connection writes = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate("CREATE TABLE " + this.data + "_1_preprocessed AS SELECT * FROM " + this.data
-					+ "_0_raw WHERE 1 = 0");
-			List<String> categories = this.categories(statement);
+			ClassDelta delta;
+			String select = "SELECT * FROM " + this.data + "_0_raw";
+			List<String> categories;
+			lock.lock();
+			try {
+				delta = new ClassDelta(connection, this.data, 1);
+				boolean create = !this.incremental || !delta.exists(this.data + "_1_preprocessed");
+				if (create) {
+					statement.executeUpdate("CREATE TABLE " + this.data + "_1_preprocessed AS SELECT * FROM "
+							+ this.data + "_0_raw WHERE 1 = 0");
+				}
+				if (this.incremental) {
+					delta.load(create, "SELECT DISTINCT class FROM " + this.data + "_1_preprocessed");
+					statement.executeUpdate("DELETE FROM " + this.data
+							+ "_1_preprocessed WHERE class IN (SELECT class FROM temp.delta)");
+					select = select + " WHERE class IN (SELECT class FROM temp.delta)";
+				}
+				categories = categories(statement, this.data);
+			} finally {
+				lock.unlock();
+			}
 			try (
-					ResultSet result = statement.executeQuery("SELECT * FROM " + this.data + "_0_raw");
-					PreparedStatement insert = this.insert(connection, categories)
+					ResultSet result = statement.executeQuery(select);
+					SQLiteWriter insert = insert(writes, this.data, categories, lock)
 			) {
+				Object[] values = new Object[3 + categories.size()];
 				while (result.next()) {
-					String clazz = result.getString("class");
-					int stratum = result.getInt("stratum");
-					String comment = result.getString("comment");
-					insert.setString(1, clazz);
-					insert.setInt(2, stratum);
-					insert.setString(3, InstancesBuilder.preprocess(comment)); //preprocess the comment
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
+					values[0] = result.getString("class");
+					values[1] = result.getInt("stratum");
+					values[2] = InstancesBuilder.preprocess(result.getString("comment")); //preprocess the comment
 					for (int i = 0; i < categories.size(); i = i + 1) {
-						insert.setString(4 + i, InstancesBuilder.preprocess(result.getString(4 + i)));
+						values[3 + i] = InstancesBuilder.preprocess(result.getString(4 + i));
 					}
-					insert.executeUpdate();
+					insert.insert(values);
 				}
 			}
+			lock.lock();
+			try {
+				delta.record();
+			} finally {
+				lock.unlock();
+			}
 		}
 	}
 
-	private PreparedStatement insert(Connection connection, List<String> categories) throws SQLException {
-		return connection.prepareStatement(
-				"INSERT INTO " + this.data + "_1_preprocessed (class, stratum, comment, " + String.join(",",
+	/**
+	 * @return writer of the preprocessed rows, values are the class, the stratum, the comment and the categories
+	 */
+	static SQLiteWriter insert(Connection connection, String data, List<String> categories, Lock lock)
+			throws SQLException {
+		return new SQLiteWriter(connection, data + "_1_preprocessed",
+				"INSERT INTO " + data + "_1_preprocessed (class, stratum, comment, " + String.join(",",
 						categories.stream().map(c -> String.format("\"%s\"", c)).collect(Collectors.toList())
 				) + ") VALUES (?, ?, ?, " + String.join(",",
 						categories.stream().map(c -> "?").collect(Collectors.toList())
-				) + ")");
+				) + ")", lock);
 	}
 
-	private List<String> categories(Statement statement) throws SQLException {
+	/**
+	 * @return categories of _0_raw, its columns without the class, the stratum and the comment
+	 */
+	static List<String> categories(Statement statement, String data) throws SQLException {
 		List<String> categories = new ArrayList<>();
 		try (
 				ResultSet result = statement.executeQuery(
-						"SELECT name FROM PRAGMA_TABLE_INFO('" + this.data + "_0_raw')")
+						"SELECT name FROM PRAGMA_TABLE_INFO('" + data + "_0_raw')")
 		) {
 			while (result.next()) {
 				categories.add(result.getString("name"));
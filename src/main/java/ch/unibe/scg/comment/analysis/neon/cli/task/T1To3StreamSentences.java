@@ -0,0 +1,150 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import ch.unibe.scg.comment.analysis.neon.cli.ParseCache;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+
+/** Preprocess, split and map the comments in one pass, writing the same tables as {@link T1Preprocess},
+ * {@link T2SplitSentences} and {@link T3MapSentences} run one after the other.
+ * Each raw row is preprocessed on this thread and split by one {@link OrderedExecutor}, its preprocessed row and
+ * sentences are written in the order of the raw rows, then its sentences are mapped by a second one whose mappings are
+ * written in the same order. The executors share the same workers. Their windows are the bounded queues between the
+ * stages: they run concurrently, hold a few classes at a time and never read the intermediate tables back.
+ * @threads number of threads splitting comments, each with its own NEON parser, and mapping classes
+ * @Note: the sentence ids are assigned here in insertion order, like the autoincrement of a new sentence table.
+ */
+public class T1To3StreamSentences {
+
+	private final String database;
+	private final String data;
+	private final int threads;
+
+	public T1To3StreamSentences(String database, String data, int threads) {
+		this.database = database;
+		this.data = data;
+		this.threads = threads;
+	}
+
+	public void run() throws Exception {
+		// the rows are read on the connection and written with the database lock on writes, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
+		try (
+				Connection connection = SQLiteWriter.connect(this.database);
+				Connection writes = SQLiteWriter.connect(this.database);
+				Statement statement = connection.createStatement()
+		) {
+			List<String> categories;
+			lock.lock();
+			try {
+				statement.executeUpdate("CREATE TABLE " + this.data + "_1_preprocessed AS SELECT * FROM " + this.data
+						+ "_0_raw WHERE 1 = 0");
+				statement.executeUpdate(Utility.resource("sql/2_sentence.sql").replaceAll("\\{\\{data}}", this.data));
+				statement.executeUpdate(Utility.resource("sql/3_sentence_mapping.sql")
+						.replaceAll("\\{\\{data}}", this.data));
+				statement.executeUpdate(Utility.resource("sql/3_sentence_mapping_clean.sql")
+						.replaceAll("\\{\\{data}}", this.data));
+				categories = T1Preprocess.categories(statement, this.data);
+			} finally {
+				lock.unlock();
+			}
+			// the comment first, then the categories
+			List<String> keys = new ArrayList<>();
+			keys.add("comment");
+			keys.addAll(categories);
+			SentenceMapper mapper = new SentenceMapper();
+			int[] id = {0};
+			int[] flushed = {0}; // sentence ids up to this one are written
+			// the splitting and mapping share the workers, so both stages together use the given threads
+			ExecutorService workers = OrderedExecutor.workers(this.threads);
+			try (
+					ParseCache cache = new ParseCache(connection, writes, lock);
+					SQLiteWriter preprocessed = T1Preprocess.insert(writes, this.data, categories, lock);
+					SQLiteWriter sentence = new SQLiteWriter(writes, this.data + "_2_sentence",
+							"INSERT INTO " + this.data + "_2_sentence (id, class, category, sentence) VALUES (?, ?, ?, ?)",
+							lock);
+					SQLiteWriter mapping = new SQLiteWriter(writes, this.data + "_3_sentence_mapping", "INSERT INTO "
+							+ this.data + "_3_sentence_mapping (comment_sentence_id, category_sentence_id, strategy, "
+							+ "similarity) VALUES (?, ?, ?, ?)", lock);
+					ResultSet result = statement.executeQuery("SELECT * FROM " + this.data + "_0_raw");
+					SentenceSplitterPool splitters = new SentenceSplitterPool(this.threads);
+					OrderedExecutor<List<SentenceMapper.Mapping>> mappers = new OrderedExecutor<>(workers, this.threads,
+							mappings -> {
+								for (SentenceMapper.Mapping m : mappings) {
+									if (Math.max(m.getCommentSentenceId(), m.getCategorySentenceId()) > flushed[0]) {
+										// the mapping references a sentence still batched in the sentence writer
+										sentence.flush();
+										flushed[0] = id[0];
+									}
+									mapping.insert(
+											m.getCommentSentenceId(),
+											m.getCategorySentenceId(),
+											m.getStrategy(),
+											m.getSimilarity()
+									);
+								}
+							}
+					);
+					OrderedExecutor<SplitComment> splitter = new OrderedExecutor<>(workers, this.threads, comment -> {
+						Object[] values = new Object[2 + keys.size()];
+						values[0] = comment.clazz;
+						values[1] = comment.stratum;
+						for (int i = 0; i < keys.size(); i = i + 1) {
+							values[2 + i] = comment.texts.get(keys.get(i));
+						}
+						preprocessed.insert(values);
+						// key = category, value = {key = sentence id, value = sentence}, built in id order as in 3
+						Map<String, Map<Integer, String>> sentences = new HashMap<>();
+						for (Map.Entry<String, List<String>> split : comment.sentences.entrySet()) {
+							for (String s : split.getValue()) {
+								id[0] = id[0] + 1;
+								sentence.insert(id[0], comment.clazz, split.getKey(), s);
+								if (!sentences.containsKey(split.getKey())) {
+									sentences.put(split.getKey(), new HashMap<>());
+								}
+								sentences.get(split.getKey()).put(id[0], s);
+							}
+						}
+						comment.cache(cache);
+						if (!sentences.isEmpty()) {
+							mappers.submit(() -> mapper.map(sentences));
+						}
+					})
+			) {
+				while (result.next()) {
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
+					SplitComment comment = new SplitComment(result.getString("class"), result.getInt("stratum"));
+					for (String key : keys) {
+						comment.put(key, InstancesBuilder.preprocess(result.getString(key)), cache);
+					}
+					splitter.submit(() -> comment.split(splitters));
+				}
+				splitter.finish();
+				mappers.finish();
+			} finally {
+				if (workers != null) {
+					workers.shutdownNow();
+				}
+			}
+			// the tables are complete, a later incremental run of 1, 2 or 3 starts from here
+			lock.lock();
+			try {
+				for (int stage = 1; stage <= 3; stage = stage + 1) {
+					new ClassDelta(connection, this.data, stage).record();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+}
@@ -1,86 +1,107 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
-import org.neon.pathsFinder.engine.Parser;
-import org.neon.pathsFinder.model.Sentence;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import ch.unibe.scg.comment.analysis.neon.cli.ParseCache;
 
-import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 /** Split the sentences using Neon parser to keep the consistent with heuristics.
- *
+ * @threads number of threads splitting comments in parallel, each with its own NEON parser.
+ * Sentences are inserted in the order of the comments, so the sentence ids do not depend on the number of threads.
+ * Texts split before, by this or an earlier run, are taken from the {@link ParseCache}.
+ * @incremental only split the classes added or changed in _0_raw since the last run, see {@link ClassDelta}
  */
 public class T2SplitSentences {
 
 	private final String database;
 	private final String data;
+	private final int threads;
+	private final boolean incremental;
 
-	public T2SplitSentences(String database, String data) {
+	public T2SplitSentences(String database, String data, int threads, boolean incremental) {
 		this.database = database;
 		this.data = data;
+		this.threads = threads;
+		this.incremental = incremental;
 	}
 
-	public void run() throws SQLException, IOException {
+	public void run() throws Exception {
+		// the rows are read on the connection and written with the database lock on writes, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
+				Connection writes = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/2_sentence.sql").replaceAll("\\{\\{data}}", this.data));
-			List<String> categories = this.categories(statement);
+			ClassDelta delta;
+			String select = "SELECT * FROM " + this.data + "_1_preprocessed";
+			List<String> categories;
+			lock.lock();
+			try {
+				delta = new ClassDelta(connection, this.data, 2);
+				boolean create = !this.incremental || !delta.exists(this.data + "_2_sentence");
+				if (create) {
+					statement.executeUpdate(Utility.resource("sql/2_sentence.sql").replaceAll("\\{\\{data}}", this.data));
+				}
+				if (this.incremental) {
+					delta.load(create, "SELECT DISTINCT class FROM " + this.data + "_2_sentence");
+					// the mappings of 3 reference the sentences
+					if (delta.exists(this.data + "_3_sentence_mapping")) {
+						statement.executeUpdate("DELETE FROM " + this.data + "_3_sentence_mapping WHERE comment_sentence_id IN "
+								+ "(SELECT id FROM " + this.data + "_2_sentence WHERE class IN (SELECT class FROM temp.delta)) "
+								+ "OR category_sentence_id IN (SELECT id FROM " + this.data
+								+ "_2_sentence WHERE class IN (SELECT class FROM temp.delta))");
+					}
+					statement.executeUpdate("DELETE FROM " + this.data
+							+ "_2_sentence WHERE class IN (SELECT class FROM temp.delta)");
+					select = select + " WHERE class IN (SELECT class FROM temp.delta)";
+				}
+				categories = T1Preprocess.categories(statement, this.data);
+			} finally {
+				lock.unlock();
+			}
 			try (
-					PreparedStatement insert = connection.prepareStatement(
-							"INSERT INTO " + this.data + "_2_sentence (class, category, sentence) VALUES (?, ?, ?)");
-					ResultSet result = statement.executeQuery("SELECT * FROM " + this.data + "_1_preprocessed")
+					ParseCache cache = new ParseCache(connection, writes, lock);
+					SQLiteWriter insert = new SQLiteWriter(writes, this.data + "_2_sentence",
+							"INSERT INTO " + this.data + "_2_sentence (class, category, sentence) VALUES (?, ?, ?)", lock);
+					ResultSet result = statement.executeQuery(select);
+					SentenceSplitterPool splitters = new SentenceSplitterPool(this.threads);
+					OrderedExecutor<SplitComment> executor = new OrderedExecutor<>(this.threads, comment -> {
+						for (Map.Entry<String, List<String>> sentences : comment.sentences.entrySet()) {
+							for (String sentence : sentences.getValue()) {
+								insert.insert(comment.clazz, sentences.getKey(), sentence);
+							}
+						}
+						comment.cache(cache);
+					})
 			) {
 				while (result.next()) {
-					String clazz = result.getString("class");
-					this.sentences(insert, clazz, "comment", result.getString("comment"));
-					for (String category : categories) {
-						this.sentences(insert, clazz, category, result.getString(category));
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
+					SplitComment comment = new SplitComment(result.getString("class"), result.getInt("stratum"));
+					// the comment first, then the categories
+					List<String> keys = new ArrayList<>();
+					keys.add("comment");
+					keys.addAll(categories);
+					for (String key : keys) {
+						comment.put(key, result.getString(key), cache);
 					}
+					executor.submit(() -> comment.split(splitters));
 				}
+				executor.finish();
 			}
-		}
-	}
-
-	private void sentences(PreparedStatement insert, String clazz, String category, String text) throws SQLException {
-		if (text == null) {
-			return;
-		}
-		for (String sentence : this.split(text)) {
-			insert.setString(1, clazz);
-			insert.setString(2, category);
-			insert.setString(3, sentence);
-			insert.executeUpdate();
-		}
-	}
-
-	private List<String> split(String text) {
-		return Parser.getInstance().parse(text).stream().map(Sentence::getText).collect(Collectors.toList());
-	}
-
-	private List<String> categories(Statement statement) throws SQLException {
-		List<String> categories = new ArrayList<>();
-		try (
-				ResultSet result = statement.executeQuery(
-						"SELECT name FROM PRAGMA_TABLE_INFO('" + this.data + "_0_raw')")
-		) {
-			while (result.next()) {
-				categories.add(result.getString("name"));
+			lock.lock();
+			try {
+				delta.record();
+			} finally {
+				lock.unlock();
 			}
 		}
-		categories.remove("class");
-		categories.remove("stratum");
-		categories.remove("comment");
-		return categories;
 	}
 
 }
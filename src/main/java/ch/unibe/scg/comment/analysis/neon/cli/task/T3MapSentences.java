@@ -1,123 +1,140 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
-import java.io.IOException;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 /** Map the sentences from comment category to the categories where it is classified to find if have unclassified sentences.
  * @Note: One sentence can belong to multiple categories and not all sentences put in the categories are full-fledged sentence.
- *
+ * @threads number of threads mapping classes in parallel, the mappings are written in the same order as with one thread
+ * @incremental only map the classes added or changed in _0_raw since the last run, see {@link ClassDelta}
  */
 public class T3MapSentences {
 
 	private final String database;
 	private final String data;
+	private final int threads;
+	private final boolean incremental;
 
-	public T3MapSentences(String database, String data) {
+	public T3MapSentences(String database, String data, int threads, boolean incremental) {
 		this.database = database;
 		this.data = data;
+		this.threads = threads;
+		this.incremental = incremental;
 	}
 
-	public void run() throws SQLException, IOException {
+	public void run() throws Exception {
+		// the rows are read on the connection and written with the database lock on writes, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
+				Connection writes = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/3_sentence_mapping.sql")
-					.replaceAll("\\{\\{data}}", this.data));
-			statement.executeUpdate(Utility.resource("sql/3_sentence_mapping_clean.sql")
-					.replaceAll("\\{\\{data}}", this.data));
+			ClassDelta delta;
+			String select = "SELECT id, class, category, sentence FROM " + this.data + "_2_sentence";
+			lock.lock();
+			try {
+				delta = new ClassDelta(connection, this.data, 3);
+				boolean create = !this.incremental || !delta.exists(this.data + "_3_sentence_mapping");
+				if (create) {
+					statement.executeUpdate(Utility.resource("sql/3_sentence_mapping.sql")
+							.replaceAll("\\{\\{data}}", this.data));
+					statement.executeUpdate(Utility.resource("sql/3_sentence_mapping_clean.sql")
+							.replaceAll("\\{\\{data}}", this.data));
+				}
+				if (this.incremental) {
+					delta.load(create, "SELECT DISTINCT s.class FROM " + this.data + "_3_sentence_mapping m JOIN "
+							+ this.data + "_2_sentence s ON (s.id = m.comment_sentence_id)");
+					statement.executeUpdate("DELETE FROM " + this.data + "_3_sentence_mapping WHERE comment_sentence_id IN "
+							+ "(SELECT id FROM " + this.data + "_2_sentence WHERE class IN (SELECT class FROM temp.delta))");
+					select = select + " WHERE class IN (SELECT class FROM temp.delta)";
+				}
+			} finally {
+				lock.unlock();
+			}
 			try (
-					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-							+ "_3_sentence_mapping (comment_sentence_id, category_sentence_id, strategy, similarity) VALUES (?, ?, ?, ?)");
-					ResultSet result = statement.executeQuery("SELECT class FROM " + this.data + "_1_preprocessed")
-			) {
-				while (result.next()) {
-					String clazz = result.getString("class");
-					Map<String, Map<Integer, String>> sentences = this.sentences(connection, clazz);
-					for (Map.Entry<Integer, String> commentEntry : sentences.get("comment").entrySet()) {
-						int commentSentenceId = commentEntry.getKey();
-						String commentSentence = commentEntry.getValue();
-						for (Map.Entry<String, Map<Integer, String>> categoryEntry : sentences.entrySet()) {
-							if (categoryEntry.getKey().equals("comment")) {
-								continue;
-							}
-							for (Map.Entry<Integer, String> categorySentenceEntry : categoryEntry.getValue()
-									.entrySet()) {
-								int categorySentenceId = categorySentenceEntry.getKey();
-								String categorySentence = categorySentenceEntry.getValue();
-								if (commentSentence.equals(categorySentence)) {
-									this.mapping(insert, commentSentenceId, categorySentenceId, "equals", 1.0);
-								} else if (commentSentence.contains(categorySentence)) {
-									this.mapping(
-											insert,
-											commentSentenceId,
-											categorySentenceId,
-											"contains",
-											1.0 * categorySentence.length() / commentSentence.length()
-									);
-								} else if (commentSentence.replaceAll("[.!?]$", "")
-										.contains(categorySentence.replaceAll("[.!?]$", ""))) {
-									this.mapping(
-											insert,
-											commentSentenceId,
-											categorySentenceId,
-											"contains-stripped",
-											1.0 * categorySentence.length() / commentSentence.length()
-									);
-								} else if (commentSentence.replaceAll("[^a-z0-9]", "")
-										.contains(categorySentence.replaceAll("[^a-z0-9]", ""))) {
-									this.mapping(
-											insert,
-											commentSentenceId,
-											categorySentenceId,
-											"contains-a-z-0-9",
-											1.0 * categorySentence.length() / commentSentence.length()
+					SQLiteWriter insert = new SQLiteWriter(writes, this.data + "_3_sentence_mapping", "INSERT INTO " + this.data
+							+ "_3_sentence_mapping (comment_sentence_id, category_sentence_id, strategy, similarity) VALUES (?, ?, ?, ?)",
+							lock);
+					ResultSet result = statement.executeQuery(select + " ORDER BY id");
+					OrderedExecutor<List<SentenceMapper.Mapping>> executor = new OrderedExecutor<>(this.threads,
+							mappings -> {
+								for (SentenceMapper.Mapping mapping : mappings) {
+									insert.insert(
+											mapping.getCommentSentenceId(),
+											mapping.getCategorySentenceId(),
+											mapping.getStrategy(),
+											mapping.getSimilarity()
 									);
 								}
 							}
-						}
-					}
+					)
+			) {
+				// classes are independent: read and write on this thread, map on the workers
+				SentenceMapper mapper = new SentenceMapper();
+				ClassSentences classes = new ClassSentences(result);
+				for (Map<String, Map<Integer, String>> sentences = classes.next(); sentences != null;
+						sentences = classes.next()) {
+					Map<String, Map<Integer, String>> group = sentences;
+					executor.submit(() -> mapper.map(group));
 				}
+				executor.finish();
+			}
+			lock.lock();
+			try {
+				delta.record();
+			} finally {
+				lock.unlock();
 			}
 		}
 	}
 
-	private void mapping(
-			PreparedStatement insert, int commentSentenceId, int categorySentenceId, String strategy, double similarity
-	) throws SQLException {
-		insert.setInt(1, commentSentenceId);
-		insert.setInt(2, categorySentenceId);
-		insert.setString(3, strategy);
-		insert.setDouble(4, similarity);
-		insert.executeUpdate();
-	}
+	/** Reads the sentences of one class at a time from a single scan of the sentence table ordered by id.
+	 * T2 inserts all sentences of a class one after the other, so the sentences of a class are consecutive rows
+	 * and only one class is held in memory.
+	 */
+	private static class ClassSentences {
 
-	public Map<String, Map<Integer, String>> sentences(Connection connection, String clazz) throws SQLException {
-		Map<String, Map<Integer, String>> sentences = new HashMap<>();
-		try (
-				Statement statement = connection.createStatement();
-				ResultSet result = statement.executeQuery(
-						"SELECT id, category, sentence FROM " + this.data + "_2_sentence WHERE class = '" + clazz + "'")
-		) {
-			while (result.next()) {
-				int id = result.getInt("id");
-				String category = result.getString("category");
-				String sentence = result.getString("sentence");
+		private final ResultSet result;
+		private boolean pending;
+
+		private ClassSentences(ResultSet result) throws SQLException {
+			this.result = result;
+			this.pending = result.next();
+		}
+
+		/**
+		 * @return key = category, value = {key = sentence id, value = sentence} of the next class, null at the end
+		 * @throws SQLException
+		 */
+		private Map<String, Map<Integer, String>> next() throws SQLException {
+			if (!this.pending) {
+				return null;
+			}
+			Map<String, Map<Integer, String>> sentences = new HashMap<>();
+			String clazz = this.result.getString("class");
+			do {
+				Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
+				int id = this.result.getInt("id");
+				String category = this.result.getString("category");
+				String sentence = this.result.getString("sentence");
 				if (!sentences.containsKey(category)) {
 					sentences.put(category, new HashMap<>());
 				}
 				sentences.get(category).put(id, sentence);
-			}
+				this.pending = this.result.next();
+			} while (this.pending && clazz.equals(this.result.getString("class")));
+			return sentences;
 		}
-		return sentences;
+
 	}
 
 }
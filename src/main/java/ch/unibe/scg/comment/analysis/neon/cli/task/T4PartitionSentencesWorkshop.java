@@ -1,9 +1,8 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -17,6 +16,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /** Prepare the partitions based on training and testing split. Within each split, we distribute sentences as per the stratum it belongs to
  * @partitions number of partitions to create. Currently, we have training (0_0) and testing (1_0) split.
@@ -33,13 +33,20 @@ public class T4PartitionSentencesWorkshop {
 	}
 
 	public void run() throws SQLException, IOException {
+		// the rows are read on the connection and written with the database lock on writes, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
+				Connection writes = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/4_sentence_partition_workshop.sql")
-					.replaceAll("\\{\\{data}}", this.data));
+			lock.lock();
+			try {
+				statement.executeUpdate(Utility.resource("sql/4_sentence_partition_workshop.sql")
+						.replaceAll("\\{\\{data}}", this.data));
+			} finally {
+				lock.unlock();
+			}
 			Map<String, Set<String>> otherCategories = new HashMap<>();
 			List<String> categories = this.categories(statement);
 			//find other categories than the category to make positive and negative instances
@@ -50,8 +57,9 @@ public class T4PartitionSentencesWorkshop {
 				}
 			}
 			try (
-					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-							+ "_4_sentence_partition_workshop (comment_sentence_id, partition, category, instance_type) VALUES (?, ?, ?, ?)");
+					SQLiteWriter insert = new SQLiteWriter(writes, this.data + "_4_sentence_partition_workshop", "INSERT INTO " + this.data
+							+ "_4_sentence_partition_workshop (comment_sentence_id, partition, category, instance_type) VALUES (?, ?, ?, ?)",
+							lock);
 					ResultSet result = statement.executeQuery(
 							"SELECT comment_sentence_id, stratum, category FROM " + this.data
 									+ "_3_sentence_mapping_clean")
@@ -62,6 +70,7 @@ public class T4PartitionSentencesWorkshop {
 				Map<String, Map<Integer, Integer>> negatives = new HashMap<>();
 
 				while (result.next()) {
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
 					int id = result.getInt("comment_sentence_id");
 					int stratum = result.getInt("stratum");
 					String category = result.getString("category");
@@ -119,11 +128,7 @@ public class T4PartitionSentencesWorkshop {
 										if (id.isPresent()) {
 											// might have exhausted population
 											this.removeSentence(strata.getValue(), id.get());
-											insert.setInt(1, id.get());
-											insert.setInt(2, cursor);
-											insert.setString(3, aCategory.getKey());
-											insert.setString(4, instance_type.getKey());
-											insert.executeUpdate();
+											insert.insert(id.get(), cursor, aCategory.getKey(), instance_type.getKey());
 										}
 										// even if we did not get any, there is nothing more to get, pretend we took something
 										partitions_[cursor] = partitions_[cursor] - 1;
@@ -1,13 +1,12 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import ch.unibe.scg.comment.analysis.neon.cli.HeuristicMatcher;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import ch.unibe.scg.comment.analysis.neon.cli.ParseCache;
 import org.neon.engine.XMLReader;
 import org.neon.model.Condition;
 import org.neon.model.Heuristic;
-import org.neon.pathsFinder.engine.Parser;
-import org.neon.pathsFinder.engine.PathsFinder;
 import org.neon.pathsFinder.engine.XMLWriter;
-import org.neon.pathsFinder.model.GrammaticalPath;
-import org.neon.pathsFinder.model.Sentence;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instances;
@@ -22,8 +21,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -31,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /** Extract the NLP (heuristic) features and text (Tfidf) features for each partition and prepares the features
@@ -54,12 +52,22 @@ public class T5PrepareExtractors {
 	}
 
 	public void run() throws Exception {
+		// the heuristics are mined without the database lock, it is only held to write, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/5_extractors.sql").replaceAll("\\{\\{data}}", this.data));
+			// closed once the rows are written, after a failure the deferred entries are dropped with the connection
+			ParseCache cache;
+			lock.lock();
+			try {
+				Extractors.create(statement, this.data);
+				cache = new ParseCache(connection);
+			} finally {
+				lock.unlock();
+			}
+			cache.setDeferred(true);
 			Map<Integer, Map<String, List<String>>> partitions = new HashMap<>();
 			for (String category : this.categories(statement)) {
 				try (
@@ -70,6 +78,7 @@ public class T5PrepareExtractors {
 								+ "\"")
 				) {
 					while (result.next()) {
+						Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
 						int partition = result.getInt("partition");
 						if (!partitions.containsKey(partition)) {
 							partitions.put(partition, new HashMap<>());
@@ -81,10 +90,10 @@ public class T5PrepareExtractors {
 					}
 				}
 			}
-			try (
-					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-							+ "_5_extractors (partition, heuristics, dictionary) VALUES (?, ?, ?)")
-			) {
+			// (partition, heuristics, heuristics compiled, dictionary) of the rows to insert
+			List<Object[]> rows = new ArrayList<>();
+			// one parser for the run, the parser of the application class loader may be held by another task
+			try (SentenceSplitterPool splitters = this.useManualHeuristicFile ? null : new SentenceSplitterPool(1)) {
 				for (Map.Entry<Integer, Map<String, List<String>>> partition : partitions.entrySet()) {
 					ArrayList<Heuristic> heuristics = new ArrayList<>();
 
@@ -92,7 +101,7 @@ public class T5PrepareExtractors {
 						heuristics.addAll(this.readHeuristicsFromFile());
 					}else{
 						for (Map.Entry<String, List<String>> category : partition.getValue().entrySet()) {
-							heuristics.addAll(this.heuristics(category.getKey(), category.getValue()));
+							heuristics.addAll(this.heuristics(splitters, cache, category.getKey(), category.getValue()));
 						}
 					}
 					List<String> sentences = partition.getValue()
@@ -102,12 +111,26 @@ public class T5PrepareExtractors {
 								r.addAll(e);
 								return r;
 							});
-					insert.setInt(1, partition.getKey());
-					insert.setBytes(2, this.heuristics(heuristics));
-					insert.setBytes(3, this.dictionary(sentences));
-					insert.executeUpdate();
+					rows.add(new Object[]{partition.getKey(),
+							this.heuristics(heuristics),
+							HeuristicMatcher.compile(heuristics),
+							this.dictionary(sentences)
+					});
 				}
 			}
+			lock.lock();
+			try (
+					cache;
+					SQLiteWriter insert = new SQLiteWriter(connection, this.data + "_5_extractors", "INSERT INTO " + this.data
+							+ "_5_extractors (partition, heuristics, heuristics_compiled, dictionary) VALUES (?, ?, ?, ?)")
+			) {
+				for (Object[] row : rows) {
+					insert.insert(row);
+				}
+				cache.flush();
+			} finally {
+				lock.unlock();
+			}
 		}
 	}
 
@@ -149,27 +172,48 @@ public class T5PrepareExtractors {
 	}
 
 	/**
-	 * Get heuristics for each category using NEON
+	 * Get heuristics for each category using NEON, the paths mined before are taken from the cache
+	 * @param splitters parsers mining the paths, see {@link SentenceSplitterPool#paths(String)}
 	 * @param category a category from the taxonomy
 	 * @param entries all sentences of the category
 	 * @return heuristics for the category collected from NEON
 	 */
-	private ArrayList<Heuristic> heuristics(String category, List<String> entries) {
-		ArrayList<Sentence> sentences = Parser.getInstance().parse(String.join("\n\n", entries)); //sentences: a list of each sentence with its type (declarative|Interrogative) and graph received from NEON, graph: morphology analysis of the sentence.
-		ArrayList<GrammaticalPath> paths = PathsFinder.getInstance().discoverCommonPaths(sentences); //minimized identical path identified from all the sentences heuristic by comparing their conditions
-		return paths.stream().map(p -> {
+	private ArrayList<Heuristic> heuristics(SentenceSplitterPool splitters, ParseCache cache, String category,
+			List<String> entries) throws Exception {
+		String text = String.join("\n\n", entries);
+		List<String> paths = cache.get("paths", text);
+		if (paths == null) {
+			paths = splitters.paths(text);
+			cache.put("paths", text, paths);
+		}
+		return heuristics(category, paths);
+	}
+
+	/**
+	 * @param category a category from the taxonomy
+	 * @param paths paths mined by {@link SentenceSplitterPool#paths(String)}
+	 * @return heuristics of the paths
+	 */
+	static ArrayList<Heuristic> heuristics(String category, List<String> paths) {
+		ArrayList<Heuristic> heuristics = new ArrayList<>();
+		int i = 0;
+		while (i < paths.size()) {
 			Heuristic heuristic = new Heuristic();
-			heuristic.setConditions(p.getConditions().stream().map(s -> {
+			heuristic.setType(paths.get(i));
+			heuristic.setSentence_type(paths.get(i + 1));
+			heuristic.setText(paths.get(i + 2));
+			heuristic.setSentence_class(category);
+			int conditions = Integer.parseInt(paths.get(i + 3));
+			i = i + 4;
+			heuristic.setConditions(paths.subList(i, i + conditions).stream().map(s -> {
 				Condition condition = new Condition();
 				condition.setConditionString(s);
 				return condition;
 			}).collect(Collectors.toCollection(ArrayList::new)));
-			heuristic.setType(p.getDependenciesPath());
-			heuristic.setSentence_type(p.identifySentenceType());
-			heuristic.setText(p.getTemplateText());
-			heuristic.setSentence_class(category);
-			return heuristic;
-		}).collect(Collectors.toCollection(ArrayList::new));
+			i = i + conditions;
+			heuristics.add(heuristic);
+		}
+		return heuristics;
 	}
 
 	/**
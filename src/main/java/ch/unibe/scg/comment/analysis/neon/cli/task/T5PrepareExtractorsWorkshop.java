@@ -1,13 +1,12 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import ch.unibe.scg.comment.analysis.neon.cli.HeuristicMatcher;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import ch.unibe.scg.comment.analysis.neon.cli.ParseCache;
 import org.neon.engine.XMLReader;
 import org.neon.model.Condition;
 import org.neon.model.Heuristic;
-import org.neon.pathsFinder.engine.Parser;
-import org.neon.pathsFinder.engine.PathsFinder;
 import org.neon.pathsFinder.engine.XMLWriter;
-import org.neon.pathsFinder.model.GrammaticalPath;
-import org.neon.pathsFinder.model.Sentence;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instances;
@@ -19,13 +18,12 @@ import weka.filters.unsupervised.attribute.StringToWordVector;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /** Extract the NLP (heuristic) features and text (Tfidf) features for each partition and prepares the features
@@ -33,7 +31,7 @@ import java.util.stream.Collectors;
  * @data language under analysis
  * @wordsToKeep number of words to keep for tfidf
  * @useManualHeuristicFile set true to use external heuristic file (available in resource folder)
- * @threads number of threads
+ * @threads number of threads mining the paths of the categories, each with its own NEON parser
  */
 public class T5PrepareExtractorsWorkshop {
 
@@ -41,21 +39,34 @@ public class T5PrepareExtractorsWorkshop {
     private final String data;
     private final int wordsToKeep;
     private final boolean useManualHeuristicFile;
+    private final int threads;
 
-    public T5PrepareExtractorsWorkshop(String database, String data, int wordsToKeep, boolean useManualHeuristicFile) {
+    public T5PrepareExtractorsWorkshop(String database, String data, int wordsToKeep, boolean useManualHeuristicFile,
+            int threads) {
         this.database = database;
         this.data = data;
         this.wordsToKeep = wordsToKeep;
         this.useManualHeuristicFile = useManualHeuristicFile;
+        this.threads = threads;
     }
 
     public void run() throws Exception {
+        // the heuristics are mined without the database lock, it is only held to write, see SQLiteWriter.lock
+        Lock lock = SQLiteWriter.lock(this.database);
         try (
-                Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+                Connection connection = SQLiteWriter.connect(this.database);
                 Statement statement = connection.createStatement()
         ) {
-            statement.executeUpdate("PRAGMA foreign_keys = on");
-            statement.executeUpdate(Utility.resource("sql/5_extractors.sql").replaceAll("\\{\\{data}}", this.data));
+            // closed once the rows are written, after a failure the deferred entries are dropped with the connection
+            ParseCache cache;
+            lock.lock();
+            try {
+                Extractors.create(statement, this.data);
+                cache = new ParseCache(connection);
+            } finally {
+                lock.unlock();
+            }
+            cache.setDeferred(true);
             Map<Integer, Map<String, List<String>>> partitions = new HashMap<>();
 
             for (String category : this.categories(statement)) {
@@ -67,6 +78,7 @@ public class T5PrepareExtractorsWorkshop {
                                 + "\"")
                 ) {
                     while (result.next()) {
+                        Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
                         int partition = result.getInt("partition");
                         if (!partitions.containsKey(partition)) {
                             partitions.put(partition, new HashMap<>());
@@ -78,39 +90,48 @@ public class T5PrepareExtractorsWorkshop {
                     }
                 }
             }
-            try (
-                    PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-                            + "_5_extractors (partition, heuristics, dictionary) VALUES (?, ?, ?)")
-            ) {
+            // (partition, heuristics, heuristics compiled, dictionary) of the rows to insert
+            List<Object[]> rows = new ArrayList<>();
+            // the parsers and threads are shared by the partitions, a parser is used by one category at a time
+            ExecutorService executorService = this.useManualHeuristicFile ? null
+                    : Executors.newFixedThreadPool(Math.max(1, this.threads));
+            try (SentenceSplitterPool splitters = this.useManualHeuristicFile ? null
+                    : new SentenceSplitterPool(this.threads)) {
                 for (Map.Entry<Integer, Map<String, List<String>>> partition : partitions.entrySet()) {
 
                     ArrayList<Heuristic> heuristics = new ArrayList<>();
-                    ArrayList<Callable<HeuristicCallable>> callables = new ArrayList<>(partition.getValue().size());
 
                     if(useManualHeuristicFile) {
                         heuristics.addAll(this.readHeuristicsFromFile());
                     } else {
-                        for (Map.Entry<String, List<String>> category : partition.getValue().entrySet()) {
-
-                            //heuristics.addAll(this.heuristics(category.getKey(), category.getValue()));
-
-                            Callable<HeuristicCallable> callable = new HeuristicCallable(category.getKey(),category.getValue());
-                            callables.add(callable);
-                        }
-                        //get fixed thread pool executor
-                        ExecutorService executorService = Executors.newFixedThreadPool(partition.getValue().size());
+                        //key = category, value = sentences of the category separated by empty lines
+                        Map<String, String> texts = new LinkedHashMap<>();
+                        //key = category, value = paths mined before, null if not cached
+                        Map<String, List<String>> cached = new HashMap<>();
+                        //key = category, value = paths being mined
+                        Map<String, Future<List<String>>> futures = new HashMap<>();
 
                         try {
-                            //Submit all the callables and obtain their Futures
-                            List<Future<HeuristicCallable>> futures =
-                                    executorService.invokeAll(callables);
-                            executorService.shutdown();
+                            //Submit the categories not in the cache
+                            for (Map.Entry<String, List<String>> category : partition.getValue().entrySet()) {
+                                String text = String.join("\n\n", category.getValue());
+                                texts.put(category.getKey(), text);
+                                cached.put(category.getKey(), cache.get("paths", text));
+                                if (cached.get(category.getKey()) == null) {
+                                    futures.put(category.getKey(),
+                                            executorService.submit(new HeuristicCallable(splitters, text)));
+                                }
+                            }
 
-                            //Iterate through the futures and get the heuristics
-                            for ( Future<HeuristicCallable> future : futures){
+                            //Iterate through the categories and get the heuristics
+                            for (Map.Entry<String, String> text : texts.entrySet()) {
+                                List<String> paths = cached.get(text.getKey());
+                                if (paths == null) {
+                                    paths = futures.get(text.getKey()).get();
+                                    cache.put("paths", text.getValue(), paths);
+                                }
                                 //heuristics for the category collected from NEON
-                                HeuristicCallable category_heuristics = future.get();
-                                heuristics.addAll( category_heuristics.call() );
+                                heuristics.addAll(T5PrepareExtractors.heuristics(text.getKey(), paths));
                             }
                         } catch (InterruptedException e) {
                             Thread.currentThread().interrupt();
@@ -125,11 +146,29 @@ public class T5PrepareExtractorsWorkshop {
                                 r.addAll(e);
                                 return r;
                             });
-                    insert.setInt(1, partition.getKey());
-                    insert.setBytes(2, this.heuristics(heuristics));
-                    insert.setBytes(3, this.dictionary(sentences));
-                    insert.executeUpdate();
+                    rows.add(new Object[]{partition.getKey(),
+                            this.heuristics(heuristics),
+                            HeuristicMatcher.compile(heuristics),
+                            this.dictionary(sentences)
+                    });
+                }
+            } finally {
+                if (executorService != null) {
+                    executorService.shutdownNow();
+                }
+            }
+            lock.lock();
+            try (
+                    cache;
+                    SQLiteWriter insert = new SQLiteWriter(connection, this.data + "_5_extractors", "INSERT INTO " + this.data
+                            + "_5_extractors (partition, heuristics, heuristics_compiled, dictionary) VALUES (?, ?, ?, ?)")
+            ) {
+                for (Object[] row : rows) {
+                    insert.insert(row);
                 }
+                cache.flush();
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -223,44 +262,26 @@ public class T5PrepareExtractorsWorkshop {
     }
 
     /**
-     * 	Get heuristics for each category using NEON
+     * 	Mine the grammatical paths of a category using NEON
      * 	It is used to parallelize the Heuristic extraction process
      */
-    class HeuristicCallable implements Callable{
-        private String category;
-        private List<String> sentences;
+    static class HeuristicCallable implements Callable<List<String>> {
+        private final SentenceSplitterPool splitters;
+        private final String text;
 
         /**
          * Initialize the class
-         * 	@param category a category from the taxonomy
-         * 	@param sentences all sentences of the category
+         * 	@param splitters parsers of the run, the callable takes the next free one
+         * 	@param text all sentences of the category separated by empty lines
          */
-        public HeuristicCallable(String category, List<String> sentences) {
-            this.category = category;
-            this.sentences = sentences;
+        public HeuristicCallable(SentenceSplitterPool splitters, String text) {
+            this.splitters = splitters;
+            this.text = text;
         }
 
         @Override
-        public ArrayList<Heuristic> call() {
-            /*
-             * sentences: a list of each sentence with its type (declarative|Interrogative) and graph received from NEON,
-             * graph: morphology analysis of the sentence.
-             */
-            ArrayList<Sentence> sentences = Parser.getInstance().parse(String.join("\n\n", this.sentences));
-            ArrayList<GrammaticalPath> paths = PathsFinder.getInstance().discoverCommonPaths(sentences); //minimized identical path identified from all the sentences heuristic by comparing their conditions
-            return paths.stream().map(p -> {
-                Heuristic heuristic = new Heuristic();
-                heuristic.setConditions(p.getConditions().stream().map(s -> {
-                    Condition condition = new Condition();
-                    condition.setConditionString(s);
-                    return condition;
-                }).collect( Collectors.toCollection(ArrayList::new)));
-                heuristic.setType(p.getDependenciesPath());
-                heuristic.setSentence_type(p.identifySentenceType());
-                heuristic.setText(p.getTemplateText());
-                heuristic.setSentence_class(this.category);
-                return heuristic;
-            }).collect(Collectors.toCollection(ArrayList::new));
+        public List<String> call() throws Exception {
+            return this.splitters.paths(this.text);
         }
     }
 }
@@ -1,8 +1,7 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -10,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 /** Store the sentences for each training and testing partition
  * @datbase input database (sqlite for now)
@@ -26,12 +26,18 @@ public class T5StorePartitionSentences {
 	}
 
 	public void run() throws Exception {
+		// the rows are read before they are written with the database lock, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/5_sentences_partitions.sql").replaceAll("\\{\\{data}}", this.data));
+			lock.lock();
+			try {
+				statement.executeUpdate(Utility.resource("sql/5_sentences_partitions.sql").replaceAll("\\{\\{data}}", this.data));
+			} finally {
+				lock.unlock();
+			}
 			Map<Integer, Map<String, Map<String, String>>> partitions = new HashMap<>();
 			for (String category : this.categories(statement)) {
 				try (
@@ -42,6 +48,7 @@ public class T5StorePartitionSentences {
 								+ "\"")
 				) {
 					while (result.next()) {
+						Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
 						int partition = result.getInt("partition");
 						String comment_sentence = result.getString("comment_sentence");
 						String class_name = result.getString("class");
@@ -59,17 +66,13 @@ public class T5StorePartitionSentences {
 				}
 			}
 			try (
-					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-							+ "_5_sentences_partitions (class, comment_sentence, partition, category) VALUES ( ?, ?, ?, ?)")
+					SQLiteWriter insert = new SQLiteWriter(connection, this.data + "_5_sentences_partitions", "INSERT INTO " + this.data
+							+ "_5_sentences_partitions (class, comment_sentence, partition, category) VALUES ( ?, ?, ?, ?)", lock)
 			) {
 				for (Map.Entry<Integer, Map<String, Map<String, String>>> partition : partitions.entrySet()) {
 					for (Map.Entry<String, Map<String, String>> category :partition.getValue().entrySet()){
 						for (Map.Entry<String, String> class_comment: category.getValue().entrySet()) {
-							insert.setString(1, class_comment.getValue());
-							insert.setString(2, class_comment.getKey());
-							insert.setInt(3, partition.getKey());
-							insert.setString(4, category.getKey());
-							insert.executeUpdate();
+							insert.insert(class_comment.getValue(), class_comment.getKey(), partition.getKey(), category.getKey());
 						}
 					}
 				}
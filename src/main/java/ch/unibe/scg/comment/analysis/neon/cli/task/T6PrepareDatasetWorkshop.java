@@ -1,16 +1,15 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import ch.unibe.scg.comment.analysis.neon.cli.BinaryDataset;
 import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
-import weka.core.converters.ArffSaver;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import ch.unibe.scg.comment.analysis.neon.cli.ParseCache;
+import weka.core.Instances;
 import weka.core.converters.CSVSaver;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -20,6 +19,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Prepares all features (text+NLP) and labels into one dataset and separate
@@ -28,6 +28,9 @@ import java.util.Set;
  * @datbase input database (sqlite for now)
  * @data language under analysis
  * @extractorsPartition number of partitions
+ * @threads number of threads extracting the heuristics
+ * @format format of the datasets stored in _6_dataset_workshop [arff|binary|binary-deflate], see {@link BinaryDataset}
+ * @Note: the format only changes the storage of this stage, T7 reads either and exports ARFF files for T10
  */
 public class T6PrepareDatasetWorkshop {
 
@@ -35,22 +38,39 @@ public class T6PrepareDatasetWorkshop {
 	private final String data;
 	private final int extractorsPartition;
 	private final Path directory;
+	private final int threads;
+	private final String format;
 
-	public T6PrepareDatasetWorkshop(String database, String data, int extractorsPartition, Path directory) {
+	public T6PrepareDatasetWorkshop(
+			String database, String data, int extractorsPartition, Path directory, int threads, String format
+	) {
 		super();
 		this.database = database;
 		this.data = data;
 		this.extractorsPartition = extractorsPartition;
 		this.directory = directory;
+		this.threads = threads;
+		if (!List.of("arff", "binary", "binary-deflate").contains(format)) {
+			throw new IllegalArgumentException("dataset format is unknown");
+		}
+		this.format = format;
 	}
 
 	public void run() throws Exception {
+		// the datasets are built without the database lock, each one is written with the lock on writes once it is
+		// built, see SQLiteWriter.lock
+		Lock lock = SQLiteWriter.lock(this.database);
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
+				Connection writes = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
-			statement.executeUpdate(Utility.resource("sql/6_dataset_workshop.sql").replaceAll("\\{\\{data}}", this.data));
+			lock.lock();
+			try {
+				statement.executeUpdate(Utility.resource("sql/6_dataset_workshop.sql").replaceAll("\\{\\{data}}", this.data));
+			} finally {
+				lock.unlock();
+			}
 			List<String> categories = this.categories(statement);
 
 			// key = partition, value = {key=category, {key=instance_type (negative,positive), value = sentence}}}
@@ -63,6 +83,7 @@ public class T6PrepareDatasetWorkshop {
 									+ "_3_sentence_mapping_clean AS m ON (p.comment_sentence_id = m.comment_sentence_id)")
 			) {
 				while (result.next()) {
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
 					int partition = result.getInt("partition");
 					int id = result.getInt("id");
 					String sentence = result.getString("comment_sentence");
@@ -82,47 +103,40 @@ public class T6PrepareDatasetWorkshop {
 				}
 			}
 			try (
-					PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.data
-							+ "_6_dataset_workshop (partition, extractors_partition, category, dataset) VALUES (?, ?, ?, ?)")
+					ParseCache cache = new ParseCache(connection, writes, lock);
+					SQLiteWriter insert = new SQLiteWriter(writes, this.data + "_6_dataset_workshop", "INSERT INTO "
+							+ this.data + "_6_dataset_workshop (partition, extractors_partition, category, dataset) "
+							+ "VALUES (?, ?, ?, ?)", lock);
+					// the extractors of the partition are loaded once per run
+					Extractors extractors = Extractors.load(statement, this.data, this.extractorsPartition, categories)
 			) {
 				//for each partition (training, testing)
 				for (Map.Entry<Integer, Map<String, Map<String, List<String>>>> partition : partitions.entrySet()) {
-					//create instance builder for each partition
-					//InstancesBuilder builder = this.instancesBuilder(statement, categories, partition.getKey());
-					for (Map.Entry<String, Map<String, List<String>>> a_category : partition.getValue().entrySet()) {
-
-						//create instance builder for each category
-						InstancesBuilder builder = this.instancesBuilder(statement, categories, a_category.getKey(), partition.getKey());
+					//create instance builder for each partition, the sentences are featurized once for all categories
+					// the parsers and threads of the builder are closed with the partition
+					try (InstancesBuilder builder = this.instancesBuilder(extractors, categories, partition.getKey())) {
+						builder.setCache(cache);
 						builder.setPartition(partition.getKey().intValue()); //set partition to prepare different feature set for training and testing
-						//iterate the sentences (instance_type -> {sentences})
-						for (Map.Entry<String, List<String>> sentences : a_category.getValue().entrySet()) {
-							for(String a_sentence: sentences.getValue()){
-								builder.add(a_sentence,a_category.getKey(),sentences.getKey());
+						builder.setPath(directory, String.format("%d-%d", partition.getKey().intValue(), extractorsPartition));
+						//build the tfidf features and heuristic features, labeled for each category (instance_type -> {sentences})
+						Map<String, Instances> datasets = builder.build(partition.getValue());
+						for (Map.Entry<String, Instances> a_category : datasets.entrySet()) {
+							try (ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+								if ("arff".equals(this.format)) {
+									InstancesBuilder.save(a_category.getValue(), buffer);
+								} else {
+									BinaryDataset.write(a_category.getValue(), buffer, "binary-deflate".equals(this.format));
+								}
+								insert.insert(
+										partition.getKey(), //partition
+										this.extractorsPartition, //ignored
+										a_category.getKey(), //category
+										buffer.toByteArray() //(sentence -> {categories})
+								);
+								// committed right away, only the datasets of the partition being built are held
+								insert.flush();
 							}
 						}
-
-						try (ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-
-							String prefix = String.format("%d-%d-%s", partition.getKey().intValue(), extractorsPartition, a_category.getKey().toLowerCase());
-							builder.setPath(directory, prefix);
-							ArffSaver saver = new ArffSaver();
-
-							/*Path path2 = this.directory.resolve(String.format("%s.arff", prefix));
-							Files.deleteIfExists(path2);
-							Path path = Files.createFile(path2);
-							saver.setFile(path.toFile());
-							saver.setInstances(builder.build());
-							saver.writeBatch();*/
-
-							saver.setInstances(builder.build()); //build the tfidf features and heuristic features
-							saver.setDestination(buffer);
-							saver.writeBatch();
-							insert.setInt(1, partition.getKey()); //partition
-							insert.setInt(2, this.extractorsPartition); //ignored
-							insert.setString(3, a_category.getKey()); //category
-							insert.setBytes(4, buffer.toByteArray()); //(sentence -> {categories})
-							insert.executeUpdate();
-						}
 					}
 				}
 			}
@@ -130,36 +144,21 @@ public class T6PrepareDatasetWorkshop {
 	}
 
 	/**
-	 * create an instance builder for each category
-	 * @param statement
-	 * @param category category for which the builder needs to be created
+	 * create an instance builder for each partition
+	 * @param extractors extractors shared by all builders of the run
 	 * @param partition
 	 * @return
-	 * @throws SQLException
-	 * @throws IOException
 	 */
-	private InstancesBuilder instancesBuilder(
-			Statement statement, List<String> categories, String category, int partition
-	) throws SQLException, IOException {
-		try (
-				ResultSet result = statement.executeQuery(
-						"SELECT heuristics, dictionary FROM " + this.data + "_5_extractors WHERE partition = "
-								+ this.extractorsPartition + "")
-		) {
-			result.next();
-			Path heuristics = Files.createTempFile("heuristics", ".xml");
-			Files.write(heuristics, result.getBytes("heuristics"));
-			Path dictionary = Files.createTempFile("dictionary", ".csv");
-			Files.write(dictionary, result.getBytes("dictionary"));
-
-			return new InstancesBuilder(
-					String.format("%s-features-%d-%d", this.data, this.extractorsPartition, partition),
-					categories,
-					category,
-					heuristics.toFile(),
-					dictionary.toFile()
-			);
-		}
+	private InstancesBuilder instancesBuilder(Extractors extractors, List<String> categories, int partition) {
+		InstancesBuilder builder = new InstancesBuilder(
+				String.format("%s-features-%d-%d", this.data, this.extractorsPartition, partition),
+				categories,
+				extractors.getHeuristics().toFile(),
+				extractors.getDictionary().toFile()
+		);
+		builder.setThreads(this.threads);
+		builder.setMatcher(extractors.getMatcher());
+		return builder;
 	}
 
 	private List<String> categories(Statement statement) throws SQLException {
@@ -1,57 +1,78 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
 import ch.unibe.scg.comment.analysis.neon.cli.InstancesBuilder;
+import ch.unibe.scg.comment.analysis.neon.cli.Metrics;
+import weka.core.AbstractInstance;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 import weka.core.converters.ArffSaver;
 import weka.core.converters.CSVSaver;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.RemoveByName;
 import weka.filters.unsupervised.attribute.Reorder;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /** Prepare the dataset, generate arff files from the dataset and store them
+ * The stored datasets are ARFF or {@link ch.unibe.scg.comment.analysis.neon.cli.BinaryDataset}, the generated files
+ * are ARFF whatever the stored format.
  * @datbase input database (sqlite for now)
  * @data language under analysis
  * @directory directory of the dataset where arff files and other intermediate data can be saved
+ * @threads number of datasets exported at the same time
  */
 public class T7PrepareExperimentsWorkshop {
 
 	private final String database;
 	private final String data;
 	private final Path directory;
+	private final int threads;
 
-	public T7PrepareExperimentsWorkshop(String database, String data, Path directory) {
+	public T7PrepareExperimentsWorkshop(String database, String data, Path directory, int threads) {
 		super();
 		this.database = database;
 		this.data = data;
 		this.directory = directory;
+		this.threads = threads;
 	}
 
 	public void run() throws Exception {
 		this.directory.toFile().mkdirs();
 		try (
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database);
+				Connection connection = SQLiteWriter.connect(this.database);
 				Statement statement = connection.createStatement()
 		) {
-			statement.executeUpdate("PRAGMA foreign_keys = on");
 			try (
 					ResultSet result = statement.executeQuery(
-							"SELECT partition, extractors_partition, category, dataset FROM " + this.data + "_6_dataset_workshop")
+							"SELECT partition, extractors_partition, category, dataset FROM " + this.data + "_6_dataset_workshop");
+					// the datasets are loaded in this thread and exported by the workers, the window bounds the memory
+					OrderedExecutor<Void> executor = new OrderedExecutor<>(this.threads, exported -> {
+					})
 			) {
 				while (result.next()) {
+					Metrics.current().add(Metrics.Counter.ROWS_IN, 1);
 					int partition = result.getInt("partition"); //training or testing
 					int extractorsPartition = result.getInt("extractors_partition");
-					byte[] dataset = result.getBytes("dataset"); //(sentence -> {categories})
 					String category = result.getString("category"); //category
-					Instances instances = InstancesBuilder.load(dataset);
+					Instances instances;
+					try (InputStream dataset = result.getBinaryStream("dataset")) { //(sentence -> {categories})
+						instances = InstancesBuilder.load(dataset);
+					}
 					/*List<String> categoryAttributeNames = new ArrayList<>(); //list of categories for sentences
 					for (int i = 0; i < instances.numAttributes(); i++) {
 						String name = instances.attribute(i).name(); // feature name
@@ -60,6 +81,7 @@ public class T7PrepareExperimentsWorkshop {
 						}
 					}*/
 					//for each category, prepare and generate arff files for each feature set (tfidf, heuristic, and both)
+					executor.submit(() -> {
 						this.storeDataset(instances,
 								partition,
 								extractorsPartition,
@@ -67,6 +89,8 @@ public class T7PrepareExperimentsWorkshop {
 								true,
 								true
 						);
+						return null;
+					});
 						// commented temporarily to save time to generate arff files for both feature set
 						/*this.storeDataset(instances,
 								partition,
@@ -83,6 +107,7 @@ public class T7PrepareExperimentsWorkshop {
 								true
 						);*/
 				}
+				executor.finish();
 			}
 		}
 	}
@@ -110,11 +135,16 @@ public class T7PrepareExperimentsWorkshop {
 				categoryAttributeName.toLowerCase().replaceAll("[^a-z0-9]", ""),
 				postfix
 		);
+		Path path = Files.createFile(this.directory.resolve(String.format("%s.arff", prefix)));
+		if (tfidf && heuristic) {
+			// all features are kept, only the label moves, so the instances are reordered while they are written
+			this.writeDataset(instances, prefix, path);
+			return;
+		}
 		Instances copy = this.prepareDataset(instances, categoryAttributeName, tfidf, heuristic);
 		copy.setRelationName(prefix);
 		// save dataset into arff format
 		ArffSaver saver = new ArffSaver();
-		Path path = Files.createFile(this.directory.resolve(String.format("%s.arff", prefix)));
 		saver.setFile(path.toFile());
 		saver.setInstances(copy);
 		saver.writeBatch();
@@ -127,6 +157,73 @@ public class T7PrepareExperimentsWorkshop {
 		csv_saver.writeBatch();*/
 	}
 
+	/**
+	 * Write the dataset as ARFF with the label (first attribute) last, as {@link #prepareDataset} and {@link ArffSaver}
+	 * would, one instance at a time instead of copying the dataset twice.
+	 * @param instances dataset with the label first
+	 * @param relationName name of the written relation
+	 * @param path ARFF file
+	 * @throws IOException
+	 */
+	private void writeDataset(Instances instances, String relationName, Path path) throws IOException {
+		int numAttributes = instances.numAttributes();
+		ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+		for (int i = 1; i < numAttributes; i = i + 1) {
+			attributes.add((Attribute) instances.attribute(i).copy());
+		}
+		attributes.add((Attribute) instances.attribute(0).copy());
+		Instances header = new Instances(relationName, attributes, 0);
+		// platform charset, as the saver
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path))))) {
+			writer.print(header.toString());
+			for (int i = 0; i < instances.numInstances(); i = i + 1) {
+				Instance instance = this.reorder(instances.instance(i));
+				instance.setDataset(header);
+				writer.println(instance.toStringMaxDecimalDigits(AbstractInstance.s_numericAfterDecimalPoint));
+			}
+			if (writer.checkError()) {
+				throw new IOException("Unable to write " + path);
+			}
+		}
+	}
+
+	/**
+	 * @return the instance with the first value moved last
+	 */
+	private Instance reorder(Instance instance) {
+		int numAttributes = instance.numAttributes();
+		if (!(instance instanceof SparseInstance)) {
+			double[] values = new double[numAttributes];
+			for (int i = 1; i < numAttributes; i = i + 1) {
+				values[i - 1] = instance.value(i);
+			}
+			values[numAttributes - 1] = instance.value(0);
+			return new DenseInstance(instance.weight(), values);
+		}
+		int numValues = instance.numValues();
+		double[] values = new double[numValues];
+		int[] indices = new int[numValues];
+		int n = 0;
+		// like the filter, zero values are not stored
+		for (int i = 0; i < numValues; i = i + 1) {
+			if (instance.index(i) > 0 && instance.valueSparse(i) != 0) {
+				values[n] = instance.valueSparse(i);
+				indices[n] = instance.index(i) - 1;
+				n = n + 1;
+			}
+		}
+		if (instance.value(0) != 0) {
+			values[n] = instance.value(0);
+			indices[n] = numAttributes - 1;
+			n = n + 1;
+		}
+		return new SparseInstance(instance.weight(),
+				Arrays.copyOf(values, n),
+				Arrays.copyOf(indices, n),
+				numAttributes
+		);
+	}
+
 	/**
 	 * Prepare the dataset (ARFF) according to the category
 	 * @param instances Weka instances (data points) to be prepared for each category
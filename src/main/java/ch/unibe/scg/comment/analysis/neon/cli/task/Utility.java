@@ -1,8 +1,11 @@
 package ch.unibe.scg.comment.analysis.neon.cli.task;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
 
 public class Utility {
 
@@ -17,4 +20,17 @@ public class Utility {
 		}
 	}
 
+	/**
+	 * @return entries of the application class path, to load isolated copies of NEON in their own class loader
+	 * @throws MalformedURLException
+	 */
+	public static URL[] classPath() throws MalformedURLException {
+		String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		URL[] urls = new URL[entries.length];
+		for (int i = 0; i < entries.length; i = i + 1) {
+			urls[i] = new File(entries[i]).toURI().toURL();
+		}
+		return urls;
+	}
+
 }
@@ -0,0 +1,9 @@
+CREATE TABLE "{{data}}_12_classification"
+(
+    "comment_id"  INTEGER NOT NULL,
+    "sentence_id" INTEGER NOT NULL,
+    "category"    TEXT    NOT NULL,
+    "probability" NUMERIC NOT NULL,
+    PRIMARY KEY ("comment_id", "sentence_id", "category"),
+    FOREIGN KEY ("comment_id", "sentence_id") REFERENCES "{{data}}_12_sentence" ("comment_id", "sentence_id")
+)
\ No newline at end of file
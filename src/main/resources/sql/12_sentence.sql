@@ -0,0 +1,8 @@
+CREATE TABLE "{{data}}_12_sentence"
+(
+    "comment_id"  INTEGER NOT NULL,
+    "sentence_id" INTEGER NOT NULL,
+    "class"       TEXT    NOT NULL,
+    "sentence"    TEXT    NOT NULL,
+    PRIMARY KEY ("comment_id", "sentence_id")
+)
\ No newline at end of file
@@ -1,7 +1,8 @@
 CREATE TABLE IF NOT EXISTS "{{data}}_5_extractors"
 (
-    "partition"  INTEGER NOT NULL,
-    "heuristics" BLOB    NOT NULL,
-    "dictionary" BLOB    NOT NULL,
+    "partition"           INTEGER NOT NULL,
+    "heuristics"          BLOB    NOT NULL,
+    "heuristics_compiled" BLOB,
+    "dictionary"          BLOB    NOT NULL,
     PRIMARY KEY ("partition")
 )
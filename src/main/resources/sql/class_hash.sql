@@ -0,0 +1,7 @@
+CREATE TABLE IF NOT EXISTS "{{data}}_class_hash"
+(
+    "stage" INTEGER NOT NULL,
+    "class" TEXT    NOT NULL,
+    "hash"  BLOB    NOT NULL,
+    PRIMARY KEY ("stage", "class")
+)
@@ -0,0 +1,16 @@
+CREATE TABLE IF NOT EXISTS "{{data}}_metrics"
+(
+    "run_id"        TEXT    NOT NULL,
+    "task"          TEXT    NOT NULL,
+    "started"       TEXT    NOT NULL,
+    "status"        TEXT    NOT NULL,
+    "millis"        INTEGER NOT NULL,
+    "rows_in"       INTEGER NOT NULL,
+    "rows_out"      INTEGER NOT NULL,
+    "rows_per_sec"  REAL    NOT NULL,
+    "neon_millis"   INTEGER NOT NULL,
+    "filter_millis" INTEGER NOT NULL,
+    "write_millis"  INTEGER NOT NULL,
+    "peak_heap"     INTEGER NOT NULL,
+    PRIMARY KEY ("run_id", "task")
+)
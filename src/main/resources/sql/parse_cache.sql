@@ -0,0 +1,6 @@
+CREATE TABLE IF NOT EXISTS "parse_cache"
+(
+    "key"   BLOB NOT NULL,
+    "value" BLOB NOT NULL,
+    PRIMARY KEY ("key")
+)
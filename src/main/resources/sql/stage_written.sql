@@ -0,0 +1,5 @@
+CREATE TABLE IF NOT EXISTS "{{data}}_stage_written"
+(
+    "stage"   INTEGER NOT NULL PRIMARY KEY,
+    "written" INTEGER NOT NULL
+)
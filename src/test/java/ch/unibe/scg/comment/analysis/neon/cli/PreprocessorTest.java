@@ -0,0 +1,101 @@
+package ch.unibe.scg.comment.analysis.neon.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** Differential test of the single pass {@link Preprocessor} against the regular expression chain it replaced, on
+ * random and adversarial comments.
+ */
+public class PreprocessorTest {
+
+	// tokens around the expressions of the chain: line endings, floats, separators, abbreviations, case and unicode
+	private static final String[] TOKENS = {
+			"\r\n", "\r", "\n", "\n\n\n", " ", "   ", "\t", ".", "..", "!", "?", ",", "@", "#", "&", "^", "%", "-", "_",
+			"1", "23", "1.2", "1.2.3", "4..5", ".5", "6.", "e", "g", "i", "t", "c", "eg", "e.g.", "e. g.", "e.g", "E.G.",
+			"i.e.", "i. e.", "ie.", "etc", "etc.", "etc..", "etc.?", "word", "Foo", "a", "é", "É", "İ", "ß", " ",
+			" ", "😀"
+	};
+
+	@Test
+	public void preprocessLikeTheRegularExpressions() {
+		Random random = new Random(6);
+		for (int run = 0; run < 50000; run = run + 1) {
+			StringBuilder comment = new StringBuilder();
+			int count = random.nextInt(20);
+			for (int i = 0; i < count; i = i + 1) {
+				comment.append(TOKENS[random.nextInt(TOKENS.length)]);
+			}
+			check(comment.toString());
+		}
+	}
+
+	@Test
+	public void preprocessRandomCharacters() {
+		Random random = new Random(7);
+		String alphabet = "abegitc019 .,!?\r\n\t@#&^%-/é";
+		for (int run = 0; run < 50000; run = run + 1) {
+			char[] comment = new char[random.nextInt(30)];
+			for (int i = 0; i < comment.length; i = i + 1) {
+				comment[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+			}
+			check(new String(comment));
+		}
+	}
+
+	@Test
+	public void preprocessLongComments() {
+		Random random = new Random(8);
+		for (int run = 0; run < 2000; run = run + 1) {
+			StringBuilder comment = new StringBuilder();
+			while (comment.length() < 1200) {
+				comment.append(TOKENS[random.nextInt(TOKENS.length)]);
+			}
+			// cut at 400 characters, in the middle of a token, and around the size of the reused buffers
+			for (int length : new int[]{400, 255, 256, 257, 399, 401, 1200}) {
+				check(comment.substring(0, Math.min(length, comment.length())));
+			}
+		}
+	}
+
+	@Test
+	public void preprocessEdgeCases() {
+		assertNull(Preprocessor.preprocess(null));
+		for (String comment : List.of("", " ", "\r\n", "\r\r\n\n", "...", "e.g.", "e.g. x", "xe.g.", "1.2.3.4",
+				"12.34.56", "a  b   c", " \n \n x \n ", "etc. etc.", "i.e.i.e.", "e.g.\n", "etc\n", "eg.\nx", ". ! ?x"
+		)) {
+			check(comment);
+		}
+	}
+
+	private static void check(String comment) {
+		assertEquals(regularExpressions(comment), Preprocessor.preprocess(comment), () -> "\"" + comment
+				.replace("\r", "\\r")
+				.replace("\n", "\\n") + "\"");
+	}
+
+	/**
+	 * The preprocessing before {@link Preprocessor}.
+	 */
+	private static String regularExpressions(String s) {
+		return s.toLowerCase().replaceAll("\r\n|\r", "\n")
+				.replaceAll("[^a-z0-9,.@#&^%!? \n]", " ")
+				.replaceAll("([0-9]+)\\.([0-9]+)", "$1$2")
+				.replaceAll(" +", " ")
+				.replaceAll("^[ \n]+", "")
+				.replaceAll("[ \n]+$", "")
+				.replaceAll("\n ", "\n")
+				.replaceAll(" \n", "\n")
+				.replaceAll("\n(\n+)", "\n\n")
+				.replaceAll("(\n|^)[ .!?]+", "$1")
+				.replaceAll("(^|[^a-z0-9])e\\.? ?g\\.? ?($|[^.a-z0-9])", "$1eg$2")
+				.replaceAll("(^|[^a-z0-9])i\\.? ?e\\.? ?($|[^.a-z0-9])", "$1ie$2")
+				.replaceAll("(^|[^a-z0-9])etc\\.? ?($|[^.a-z0-9])", "$1etc$2")
+				.trim();
+	}
+
+}
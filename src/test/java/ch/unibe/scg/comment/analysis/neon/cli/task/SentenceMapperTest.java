@@ -0,0 +1,164 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Compares {@link MultiPatternMatcher} with String.contains and {@link SentenceMapper} with the nested loops it
+ * replaced in {@link T3MapSentences}, on generated sentences with many overlapping and nested patterns.
+ */
+public class SentenceMapperTest {
+
+	private static final String[] WORDS = {"a", "aa", "ab", "the", "The", "is", "x.", "1.2", "foo!", "bar?", "", " ", "."};
+
+	@Test
+	public void matcherFindsExactlyTheContainedPatterns() {
+		Random random = new Random(1);
+		for (int run = 0; run < 2000; run = run + 1) {
+			List<String> patterns = new ArrayList<>();
+			int size = random.nextInt(8);
+			for (int i = 0; i < size; i = i + 1) {
+				patterns.add(sentence(random, 3));
+			}
+			String text = sentence(random, 12);
+			BitSet expected = new BitSet();
+			for (int i = 0; i < patterns.size(); i = i + 1) {
+				if (text.contains(patterns.get(i))) {
+					expected.set(i);
+				}
+			}
+			assertEquals(expected, new MultiPatternMatcher(patterns).matches(text), patterns + " in \"" + text + "\"");
+		}
+	}
+
+	@Test
+	public void mapperMapsLikeTheNestedLoops() {
+		Random random = new Random(2);
+		int id = 0;
+		for (int run = 0; run < 2000; run = run + 1) {
+			Map<String, Map<Integer, String>> sentences = new LinkedHashMap<>();
+			Map<Integer, String> comments = new LinkedHashMap<>();
+			int size = 1 + random.nextInt(5);
+			for (int i = 0; i < size; i = i + 1) {
+				id = id + 1;
+				comments.put(id, sentence(random, 10));
+			}
+			sentences.put("comment", comments);
+			List<String> texts = new ArrayList<>(comments.values());
+			for (String category : new String[]{"Intent", "Example", "Usage"}) {
+				Map<Integer, String> categorySentences = new LinkedHashMap<>();
+				int count = random.nextInt(4);
+				for (int i = 0; i < count; i = i + 1) {
+					id = id + 1;
+					// half of the category sentences are cut from a comment sentence, as in the raw data
+					categorySentences.put(id, random.nextBoolean()
+							? cut(random, texts.get(random.nextInt(texts.size())))
+							: sentence(random, 3));
+				}
+				sentences.put(category, categorySentences);
+			}
+			assertEquals(nestedLoops(sentences), rows(new SentenceMapper().map(sentences)), sentences.toString());
+		}
+	}
+
+	@Test
+	public void mapperMapsEdgeCases() {
+		Map<String, Map<Integer, String>> sentences = new LinkedHashMap<>();
+		sentences.put("comment", new LinkedHashMap<>(Map.of(1, "aaa.", 2, "Foo bar!")));
+		Map<Integer, String> intent = new LinkedHashMap<>();
+		intent.put(3, "aaa.");
+		intent.put(4, "aa");
+		intent.put(5, "aaa?");
+		intent.put(6, "oo bar");
+		intent.put(7, "oobar");
+		intent.put(8, "Foo bar!");
+		sentences.put("Intent", intent);
+		assertEquals(nestedLoops(sentences), rows(new SentenceMapper().map(sentences)));
+	}
+
+	/**
+	 * The mapping of the sentences of a class as done before the multi-pattern matcher, in the same order.
+	 */
+	private static List<String> nestedLoops(Map<String, Map<Integer, String>> sentences) {
+		List<String> rows = new ArrayList<>();
+		for (Map.Entry<Integer, String> commentEntry : sentences.get("comment").entrySet()) {
+			int commentSentenceId = commentEntry.getKey();
+			String commentSentence = commentEntry.getValue();
+			for (Map.Entry<String, Map<Integer, String>> categoryEntry : sentences.entrySet()) {
+				if (categoryEntry.getKey().equals("comment")) {
+					continue;
+				}
+				for (Map.Entry<Integer, String> categorySentenceEntry : categoryEntry.getValue().entrySet()) {
+					int categorySentenceId = categorySentenceEntry.getKey();
+					String categorySentence = categorySentenceEntry.getValue();
+					double similarity = 1.0 * categorySentence.length() / commentSentence.length();
+					if (commentSentence.equals(categorySentence)) {
+						rows.add(row(commentSentenceId, categorySentenceId, "equals", 1.0));
+					} else if (commentSentence.contains(categorySentence)) {
+						rows.add(row(commentSentenceId, categorySentenceId, "contains", similarity));
+					} else if (commentSentence.replaceAll("[.!?]$", "")
+							.contains(categorySentence.replaceAll("[.!?]$", ""))) {
+						rows.add(row(commentSentenceId, categorySentenceId, "contains-stripped", similarity));
+					} else if (commentSentence.replaceAll("[^a-z0-9]", "")
+							.contains(categorySentence.replaceAll("[^a-z0-9]", ""))) {
+						rows.add(row(commentSentenceId, categorySentenceId, "contains-a-z-0-9", similarity));
+					}
+				}
+			}
+		}
+		return rows;
+	}
+
+	private static List<String> rows(List<SentenceMapper.Mapping> mappings) {
+		List<String> rows = new ArrayList<>();
+		for (SentenceMapper.Mapping mapping : mappings) {
+			rows.add(row(mapping.getCommentSentenceId(),
+					mapping.getCategorySentenceId(),
+					mapping.getStrategy(),
+					mapping.getSimilarity()
+			));
+		}
+		return rows;
+	}
+
+	private static String row(int commentSentenceId, int categorySentenceId, String strategy, double similarity) {
+		return commentSentenceId + " " + categorySentenceId + " " + strategy + " " + similarity;
+	}
+
+	private static String sentence(Random random, int words) {
+		StringBuilder sentence = new StringBuilder();
+		int count = random.nextInt(words + 1);
+		for (int i = 0; i < count; i = i + 1) {
+			if (i > 0 && random.nextBoolean()) {
+				sentence.append(' ');
+			}
+			sentence.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sentence.toString();
+	}
+
+	/**
+	 * @return a substring of the sentence, sometimes with a terminator added or changed in case
+	 */
+	private static String cut(Random random, String sentence) {
+		int from = random.nextInt(sentence.length() + 1);
+		int to = from + random.nextInt(sentence.length() - from + 1);
+		String cut = sentence.substring(from, to);
+		switch (random.nextInt(4)) {
+			case 0:
+				return cut + ".";
+			case 1:
+				return cut.toUpperCase();
+			default:
+				return cut;
+		}
+	}
+
+}
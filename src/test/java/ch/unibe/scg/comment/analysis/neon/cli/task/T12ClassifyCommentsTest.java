@@ -0,0 +1,78 @@
+package ch.unibe.scg.comment.analysis.neon.cli.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Checks the parser of the JSON lines read by {@link T12ClassifyComments}: one object of primitives per line.
+ */
+public class T12ClassifyCommentsTest {
+
+	@Test
+	public void parsesObjectsOfPrimitives() {
+		Map<String, String> expected = new HashMap<>();
+		expected.put("class", "Foo");
+		expected.put("comment", "I am Foo.");
+		expected.put("stratum", "1");
+		expected.put("score", "-0.5e+3");
+		expected.put("public", "true");
+		expected.put("author", null);
+		assertEquals(expected, T12ClassifyComments.Comments.json(
+				" { \"class\" : \"Foo\", \"comment\":\"I am Foo.\",\"stratum\":1, \"score\": -0.5e+3,"
+						+ "\"public\":true ,\"author\":null }\t"));
+		assertEquals(Map.of(), T12ClassifyComments.Comments.json("{ }"));
+	}
+
+	@Test
+	public void decodesEscapes() {
+		assertEquals(Map.of("comment", "\"quoted\" \\ / \b\f\n\r\t"),
+				T12ClassifyComments.Comments.json("{\"comment\":\"\\\"quoted\\\" \\\\ \\/ \\b\\f\\n\\r\\t\"}"));
+		assertEquals(Map.of("comment", "A\u00e9\uD83D\uDE00"),
+				T12ClassifyComments.Comments.json("{\"comment\":\"\\u0041\\u00E9\\ud83d\\ude00\"}"));
+		assertEquals(Map.of("co\"mment", "x"), T12ClassifyComments.Comments.json("{\"co\\u0022mment\":\"x\"}"));
+	}
+
+	@Test
+	public void rejectsInvalidEscapes() {
+		for (String line : new String[]{
+				"{\"comment\":\"\\u00\"}", "{\"comment\":\"\\u+041\"}", "{\"comment\":\"\\u-041\"}",
+				"{\"comment\":\"\\uZZZZ\"}", "{\"comment\":\"\\x\"}", "{\"comment\":\"\\u004"
+		}) {
+			assertThrows(IllegalArgumentException.class, () -> T12ClassifyComments.Comments.json(line), line);
+		}
+	}
+
+	@Test
+	public void rejectsContentAfterTheObject() {
+		for (String line : new String[]{
+				"{\"class\":\"Foo\"} x", "{}{}", "{\"class\":\"Foo\"},", "{\"class\":\"Foo\"}}", "{} // comment"
+		}) {
+			assertThrows(IllegalArgumentException.class, () -> T12ClassifyComments.Comments.json(line), line);
+		}
+	}
+
+	@Test
+	public void rejectsUnclosedObjects() {
+		for (String line : new String[]{
+				"{", "{\"class\"", "{\"class\":", "{\"class\":\"Foo", "{\"class\":\"Foo\"", "{\"class\":\"Foo\",",
+				"{\"class\":1", "{\"class\":\"Foo\" \"comment\":\"x\"}", ""
+		}) {
+			assertThrows(IllegalArgumentException.class, () -> T12ClassifyComments.Comments.json(line), line);
+		}
+	}
+
+	@Test
+	public void rejectsValuesThatAreNoPrimitives() {
+		for (String line : new String[]{
+				"{\"class\":Foo}", "{\"class\":}", "{\"class\":01}", "{\"class\":{\"a\":1}}", "{\"class\":[1]}",
+				"{class:\"Foo\"}", "[\"Foo\"]"
+		}) {
+			assertThrows(IllegalArgumentException.class, () -> T12ClassifyComments.Comments.json(line), line);
+		}
+	}
+
+}